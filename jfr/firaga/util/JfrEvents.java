@@ -0,0 +1,103 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR events mirroring {@link Metrics}. Kept out of the main sources so that they build on JDKs without the JFR event
+ * API, and only loaded when the JVM ships it.
+ *
+ * The events are committed when the measured operation ends and carry its duration as {@code elapsed}.
+ */
+final class JfrEvents implements MetricsEvents {
+
+    @Name("firaga.WorkerStartup")
+    @Label("Duel Worker Startup")
+    @Category("FiraGA")
+    private static final class WorkerStartup extends Event {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        private long elapsed;
+    }
+
+    @Name("firaga.Duel")
+    @Label("Duel")
+    @Category("FiraGA")
+    private static final class Duel extends Event {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        private long elapsed;
+        @Label("Wins")
+        private int wins;
+        @Label("Games")
+        private int games;
+        @Label("Score")
+        private int score;
+    }
+
+    @Name("firaga.Fitness")
+    @Label("Fitness Evaluation")
+    @Category("FiraGA")
+    private static final class Fitness extends Event {
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        private long elapsed;
+        @Label("Level")
+        private int level;
+        @Label("Fitness")
+        private int fitness;
+    }
+
+    @Override
+    public final void commitWorkerStartup(final long startNanos) {
+        final WorkerStartup event = new WorkerStartup();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public final void commitDuel(final long startNanos, final int wins, final int games, final int score) {
+        final Duel event = new Duel();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.wins = wins;
+            event.games = games;
+            event.score = score;
+            event.commit();
+        }
+    }
+
+    @Override
+    public final void commitFitness(final long startNanos, final int level, final int fitness) {
+        final Fitness event = new Fitness();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.level = level;
+            event.fitness = fitness;
+            event.commit();
+        }
+    }
+
+}
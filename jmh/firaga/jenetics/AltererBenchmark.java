@@ -0,0 +1,72 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import io.jenetics.Alterer;
+import io.jenetics.AltererResult;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.util.ISeq;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of one pass of the default alterers over a population of 50 decks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AltererBenchmark {
+
+    @Param({"200", "2000", "10000"})
+    public int spellPoolSize;
+
+    private Alterer<IntegerGene, Integer> alterer;
+    private ISeq<Phenotype<IntegerGene, Integer>> population;
+
+    @Setup
+    public void setup() {
+        this.alterer = DeckBuilderEngine.DEFAULT_ENGINE_BUILDER.getAlterers();
+        final Genotype<IntegerGene> prototype = Genotype.of(DeckChromosome.of(this.spellPoolSize));
+        this.population = IntStream.range(0, 50)
+            .mapToObj(i -> Phenotype.<IntegerGene, Integer>of(prototype.newInstance(), 1, gt -> 0))
+            .collect(ISeq.toISeq());
+    }
+
+    @Benchmark
+    public AltererResult<IntegerGene, Integer> alter() {
+        return this.alterer.alter(this.population, 2);
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import io.jenetics.IntegerGene;
+import io.jenetics.util.ISeq;
+import io.jenetics.util.MSeq;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of creating one offspring chromosome. Run with {@code ./gradlew jmh} to get the allocated bytes per
+ * offspring as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeckChromosomeBenchmark {
+
+    @Param({"200", "2000", "10000"})
+    public int spellPoolSize;
+
+    private DeckChromosome prototype;
+    private DeckChromosome instance;
+    private ISeq<IntegerGene> alteredGenes;
+    private int[] alteredEntries;
+
+    @Setup
+    public void setup() {
+        this.prototype = DeckChromosome.of(this.spellPoolSize);
+        this.instance = this.prototype.newInstance();
+
+        // An overfull deck, as left behind by crossover, so that validateDeckSize has to remove cards
+        final MSeq<IntegerGene> genes = this.prototype.newInstance().toSeq().copy();
+        final ISeq<IntegerGene> other = this.prototype.newInstance().toSeq();
+        for (int i = 0; i < genes.size(); i++)
+            if (other.get(i).intValue() > 0)
+                genes.set(i, other.get(i));
+        this.alteredGenes = genes.toISeq();
+        this.alteredEntries = IntStream.range(0, genes.size())
+            .filter(i -> genes.get(i).intValue() > 0)
+            .map(i -> DeckChromosome.entry(i, genes.get(i).intValue()))
+            .toArray();
+    }
+
+    @Benchmark
+    public DeckChromosome newRandomInstance() {
+        return this.prototype.newInstance();
+    }
+
+    @Benchmark
+    public DeckChromosome newInstanceFromAlteredGenes() {
+        return this.prototype.newInstance(this.alteredGenes);
+    }
+
+    /**
+     * The path taken by the alterers. The entries are copied first because newInstance compacts them in place.
+     */
+    @Benchmark
+    public DeckChromosome newInstanceFromAlteredEntries() {
+        return this.prototype.newInstance(this.alteredEntries.clone(), this.alteredEntries.length);
+    }
+
+    @Benchmark
+    public ISeq<IntegerGene> toSeq() {
+        return this.instance.toSeq();
+    }
+
+}
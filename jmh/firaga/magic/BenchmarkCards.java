@@ -0,0 +1,51 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.util.List;
+
+import magic.data.CardDefinitions;
+import magic.model.MagicCardDefinition;
+import magic.utility.MagicSystem;
+import magic.utility.ProgressReporter;
+
+/**
+ * Card pools for benchmarks that need Magarena. Those benchmarks fork with {@code -Dmagarena.dir} set.
+ */
+public final class BenchmarkCards {
+
+    public static final String MAGARENA_DIR = "-Dmagarena.dir=lib/magarena/release";
+
+    private static boolean initialized = false;
+
+    public static final synchronized void initialize() {
+        if (!initialized) {
+            MagicSystem.initialize(new ProgressReporter());
+            initialized = true;
+        }
+    }
+
+    public static final List<MagicCardDefinition> getSpellPool(final int spellPoolSize) {
+        initialize();
+        final List<MagicCardDefinition> spells = CardDefinitions.getSpellCards();
+        if (spells.size() < spellPoolSize)
+            throw new IllegalArgumentException("Magarena only has " + spells.size() + " spells");
+        return spells.subList(0, spellPoolSize);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import firaga.jenetics.DeckChromosome;
+import firaga.magic.land.BasicLandGenerator;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicDeck;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of turning a chromosome into a playable deck, lands included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCards.MAGARENA_DIR)
+public class MagicDeckCreatorBenchmark {
+
+    @Param({"200", "2000", "10000"})
+    public int spellPoolSize;
+
+    private List<MagicCardDefinition> spellPool;
+    private CardPoolIndex cardPoolIndex;
+    private Genotype<IntegerGene> genotype;
+
+    @Setup
+    public void setup() {
+        this.spellPool = BenchmarkCards.getSpellPool(this.spellPoolSize);
+        this.cardPoolIndex = new CardPoolIndex(this.spellPool);
+        this.genotype = Genotype.of(DeckChromosome.of(this.spellPoolSize)).newInstance();
+    }
+
+    @Benchmark
+    public MagicDeck getMagicDeck() {
+        return MagicDeckCreator.getMagicDeck(this.spellPool, this.genotype, BasicLandGenerator.getInstance());
+    }
+
+    @Benchmark
+    public MagicDeck getMagicDeckFromIndex() {
+        return MagicDeckCreator.getMagicDeck(this.cardPoolIndex, this.genotype, BasicLandGenerator.getInstance());
+    }
+
+    @Benchmark
+    public CardPoolIndex newCardPoolIndex() {
+        return new CardPoolIndex(this.spellPool);
+    }
+
+}
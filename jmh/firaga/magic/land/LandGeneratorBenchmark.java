@@ -0,0 +1,100 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.land;
+
+import java.util.concurrent.TimeUnit;
+
+import firaga.jenetics.DeckChromosome;
+import firaga.magic.BenchmarkCards;
+import firaga.magic.MagicDeckCreator;
+import io.jenetics.Genotype;
+import magic.data.MagicFormat;
+import magic.data.MagicPredefinedFormat;
+import magic.model.MagicColor;
+import magic.model.MagicDeck;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of adding basic lands to a deck of spells and of building the land pool of a format.
+ *
+ * The land pool does not depend on the spell pool, only on the format, so it is measured for every format instead.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkCards.MAGARENA_DIR)
+public class LandGeneratorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Spells {
+
+        @Param({"200", "2000", "10000"})
+        public int spellPoolSize;
+
+        private MagicDeck spells;
+
+        @Setup
+        public void setup() {
+            this.spells = MagicDeckCreator.getMagicDeck(BenchmarkCards.getSpellPool(this.spellPoolSize), Genotype.of(DeckChromosome.of(this.spellPoolSize)).newInstance(), deck -> {});
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Format {
+
+        @Param({"Standard", "Modern", "Legacy"})
+        public String formatName;
+
+        private MagicFormat format;
+
+        @Setup
+        public void setup() {
+            BenchmarkCards.initialize();
+            this.format = MagicPredefinedFormat.values().stream()
+                .filter(fmt -> fmt.getName().equalsIgnoreCase(this.formatName))
+                .findAny().get();
+        }
+
+    }
+
+    @Benchmark
+    public MagicDeck addBasicLands(final Spells spells) {
+        final MagicDeck deck = new MagicDeck();
+        deck.addAll(spells.spells);
+        BasicLandGenerator.getInstance().addLands(deck);
+        return deck;
+    }
+
+    @Benchmark
+    public LandPool newLandPool(final Format format) {
+        return new LandPool(format.format, MagicColor.White, MagicColor.Blue);
+    }
+
+}
@@ -18,21 +18,77 @@
 package firaga;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+import firaga.jenetics.Islands;
+import firaga.magic.DuelScheduler;
+import firaga.magic.Fidelity;
+import firaga.magic.MagicDuelHandler;
+import firaga.magic.duel.SequentialTest;
+import firaga.magic.duel.SyntheticBackend;
+import firaga.magic.duel.WorkerProfile;
 import magic.data.MagicFormat;
 import magic.data.MagicPredefinedFormat;
 import magic.model.MagicColor;
 
 public final class CmdLineArgs {
 
-    final MagicFormat format;
-    final MagicColor[] colors;
+    final List<Target> targets;
+    final WorkerProfile workerProfile;
+    final boolean workerImage;
     final String saveDir;
+    final SequentialTest sequentialTest;
+    final int coordinatorPort;
+    final boolean resume;
+    final int cores;
+    final long memoryMB;
+    final int batchSize;
+    final double surrogateFraction;
+    final boolean race;
+    final int islands;
+    final Islands.Topology topology;
+    final int migrationInterval;
+    final boolean steadyState;
+    final long gameMillis;
+    final long duelMillis;
+    final int pruneGenerations;
+    final double exploration;
+    final int initialGames;
+    final List<Fidelity> fidelities;
+    final SyntheticBackend syntheticBackend;
+    final Long seed;
 
     public CmdLineArgs(final String[] args) {
         String formatString = null;
         String colorString = null;
         String saveDirString = null;
+        String earlyStopString = null;
+        String coordinatorString = null;
+        boolean resumeFlag = false;
+        String coresString = null;
+        String memoryString = null;
+        String batchString = null;
+        String surrogateString = null;
+        boolean raceFlag = false;
+        String islandsString = null;
+        String topologyString = null;
+        String migrationString = null;
+        boolean steadyStateFlag = false;
+        String gameTimeString = null;
+        String duelTimeString = null;
+        String targetsString = null;
+        String workerProfileString = null;
+        boolean workerImageFlag = false;
+        String pruneString = null;
+        String exploreString = null;
+        String budgetString = null;
+        String fidelityString = null;
+        String syntheticString = null;
+        String seedString = null;
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("--format") || args[i].equals("-f")) {
                 if (formatString == null)
@@ -52,31 +108,400 @@ public final class CmdLineArgs {
                 else
                     throw new IllegalArgumentException("Save directory specified more than once");
             }
+            else if (args[i].equals("--early-stop") || args[i].equals("-e")) {
+                if (earlyStopString == null)
+                    earlyStopString = args[++i];
+                else
+                    throw new IllegalArgumentException("Early stopping threshold specified more than once");
+            }
+            else if (args[i].equals("--coordinator") || args[i].equals("-p")) {
+                if (coordinatorString == null)
+                    coordinatorString = args[++i];
+                else
+                    throw new IllegalArgumentException("Coordinator port specified more than once");
+            }
+            else if (args[i].equals("--resume") || args[i].equals("-r")) {
+                resumeFlag = true;
+            }
+            else if (args[i].equals("--cores") || args[i].equals("-n")) {
+                if (coresString == null)
+                    coresString = args[++i];
+                else
+                    throw new IllegalArgumentException("Core budget specified more than once");
+            }
+            else if (args[i].equals("--memory") || args[i].equals("-m")) {
+                if (memoryString == null)
+                    memoryString = args[++i];
+                else
+                    throw new IllegalArgumentException("Memory budget specified more than once");
+            }
+            else if (args[i].equals("--batch") || args[i].equals("-b")) {
+                if (batchString == null)
+                    batchString = args[++i];
+                else
+                    throw new IllegalArgumentException("Batch size specified more than once");
+            }
+            else if (args[i].equals("--surrogate") || args[i].equals("-s")) {
+                if (surrogateString == null)
+                    surrogateString = args[++i];
+                else
+                    throw new IllegalArgumentException("Surrogate fraction specified more than once");
+            }
+            else if (args[i].equals("--race") || args[i].equals("-R")) {
+                raceFlag = true;
+            }
+            else if (args[i].equals("--islands") || args[i].equals("-i")) {
+                if (islandsString == null)
+                    islandsString = args[++i];
+                else
+                    throw new IllegalArgumentException("Island count specified more than once");
+            }
+            else if (args[i].equals("--topology") || args[i].equals("-t")) {
+                if (topologyString == null)
+                    topologyString = args[++i];
+                else
+                    throw new IllegalArgumentException("Migration topology specified more than once");
+            }
+            else if (args[i].equals("--migration") || args[i].equals("-g")) {
+                if (migrationString == null)
+                    migrationString = args[++i];
+                else
+                    throw new IllegalArgumentException("Migration interval specified more than once");
+            }
+            else if (args[i].equals("--steady-state") || args[i].equals("-S")) {
+                steadyStateFlag = true;
+            }
+            else if (args[i].equals("--targets") || args[i].equals("-l")) {
+                if (targetsString == null)
+                    targetsString = args[++i];
+                else
+                    throw new IllegalArgumentException("Targets specified more than once");
+            }
+            else if (args[i].equals("--worker-profile") || args[i].equals("-P")) {
+                if (workerProfileString == null)
+                    workerProfileString = args[++i];
+                else
+                    throw new IllegalArgumentException("Worker profile specified more than once");
+            }
+            else if (args[i].equals("--worker-image") || args[i].equals("-W")) {
+                workerImageFlag = true;
+            }
+            else if (args[i].equals("--prune") || args[i].equals("-u")) {
+                if (pruneString == null)
+                    pruneString = args[++i];
+                else
+                    throw new IllegalArgumentException("Pruning generations specified more than once");
+            }
+            else if (args[i].equals("--explore") || args[i].equals("-x")) {
+                if (exploreString == null)
+                    exploreString = args[++i];
+                else
+                    throw new IllegalArgumentException("Exploration quota specified more than once");
+            }
+            else if (args[i].equals("--budget") || args[i].equals("-a")) {
+                if (budgetString == null)
+                    budgetString = args[++i];
+                else
+                    throw new IllegalArgumentException("Initial games specified more than once");
+            }
+            else if (args[i].equals("--fidelity") || args[i].equals("-F")) {
+                if (fidelityString == null)
+                    fidelityString = args[++i];
+                else
+                    throw new IllegalArgumentException("Fidelities specified more than once");
+            }
+            else if (args[i].equals("--synthetic") || args[i].equals("-y")) {
+                if (syntheticString == null)
+                    syntheticString = args[++i];
+                else
+                    throw new IllegalArgumentException("Synthetic backend specified more than once");
+            }
+            else if (args[i].equals("--seed") || args[i].equals("-z")) {
+                if (seedString == null)
+                    seedString = args[++i];
+                else
+                    throw new IllegalArgumentException("Seed specified more than once");
+            }
+            else if (args[i].equals("--game-time") || args[i].equals("-T")) {
+                if (gameTimeString == null)
+                    gameTimeString = args[++i];
+                else
+                    throw new IllegalArgumentException("Game deadline specified more than once");
+            }
+            else if (args[i].equals("--duel-time") || args[i].equals("-D")) {
+                if (duelTimeString == null)
+                    duelTimeString = args[++i];
+                else
+                    throw new IllegalArgumentException("Duel deadline specified more than once");
+            }
             else {
                 throw new IllegalArgumentException("Unknown argument: " + args[i]);
             }
         }
 
-        this.format = parseFormat(formatString.trim());
-        this.colors = parseColors(colorString.trim());
+        if (targetsString == null)
+            this.targets = Collections.singletonList(new Target(parseFormat(formatString.trim()), parseColors(colorString.trim()), 1));
+        else if (formatString == null && colorString == null)
+            this.targets = parseTargets(targetsString.trim());
+        else
+            throw new IllegalArgumentException("Targets cannot be combined with a format or color");
         if (saveDirString == null)
             this.saveDir = "output_decks";
         else
             this.saveDir = saveDirString;
+        if (earlyStopString == null)
+            this.sequentialTest = SequentialTest.NONE;
+        else
+            this.sequentialTest = parseSequentialTest(earlyStopString.trim());
+        if (coordinatorString == null)
+            this.coordinatorPort = 0;
+        else
+            this.coordinatorPort = parsePort(coordinatorString.trim());
+        this.resume = resumeFlag;
+        this.cores = coresString == null ? 0 : (int) parseBudget("Core budget", coresString.trim());
+        this.memoryMB = memoryString == null ? 0 : parseBudget("Memory budget", memoryString.trim());
+        this.race = raceFlag;
+        this.surrogateFraction = surrogateString == null ? 0 : parseFraction("Surrogate fraction", surrogateString.trim());
+        this.batchSize = batchString == null ? DuelScheduler.DEFAULT_BATCH_SIZE : (int) parseBudget("Batch size", batchString.trim());
+        this.islands = islandsString == null ? 1 : (int) parseBudget("Island count", islandsString.trim());
+        this.topology = topologyString == null ? Islands.Topology.RING : parseTopology(topologyString.trim());
+        this.migrationInterval = migrationString == null ? Islands.DEFAULT_MIGRATION_INTERVAL : (int) parseBudget("Migration interval", migrationString.trim());
+        this.steadyState = steadyStateFlag;
+        this.workerProfile = workerProfileString == null ? WorkerProfile.DEFAULT : parseWorkerProfile(workerProfileString.trim());
+        this.workerImage = workerImageFlag;
+        this.gameMillis = gameTimeString == null ? MagicDuelHandler.DEFAULT_GAME_MILLIS : 1000 * parseBudget("Game deadline", gameTimeString.trim());
+        this.duelMillis = duelTimeString == null ? 0 : 1000 * parseBudget("Duel deadline", duelTimeString.trim());
+        this.pruneGenerations = pruneString == null ? 0 : (int) parseBudget("Pruning generations", pruneString.trim());
+        this.exploration = exploreString == null ? 0 : parseFraction("Exploration quota", exploreString.trim());
+        if (this.exploration > 0 && this.pruneGenerations == 0)
+            throw new IllegalArgumentException("The exploration quota only applies to a pruned spell pool");
+        this.initialGames = budgetString == null ? 0 : (int) parseBudget("Initial games", budgetString.trim());
+        if (this.initialGames >= MagicDuelHandler.NR_OF_GAMES)
+            throw new IllegalArgumentException("Initial games is " + this.initialGames + ", expected fewer than the " + MagicDuelHandler.NR_OF_GAMES + " games of a duel.");
+        if (this.initialGames > 0 && (this.race || this.steadyState || this.islands > 1))
+            throw new IllegalArgumentException("A game budget cannot be combined with racing, steady state or islands");
+        this.fidelities = fidelityString == null ? Collections.singletonList(Fidelity.DEFAULT) : parseFidelities(fidelityString.trim());
+        this.syntheticBackend = syntheticString == null ? null : SyntheticBackend.parse(syntheticString.trim());
+        if (this.syntheticBackend != null && this.coordinatorPort != 0)
+            throw new IllegalArgumentException("Duels cannot be both synthetic and distributed to remote workers");
+        if (this.targets.size() > 1 && this.resume)
+            throw new IllegalArgumentException("Runs with several targets share Jenetics' random generators and cannot be resumed");
+        this.seed = seedString == null ? null : parseSeed(seedString.trim());
+        if (this.targets.size() > 1 && this.seed != null)
+            throw new IllegalArgumentException("Runs with several targets share Jenetics' random generators and cannot be seeded");
+        if (this.islands > 1 && this.resume)
+            throw new IllegalArgumentException("Runs on islands cannot be resumed");
+        if (this.islands > 1 && this.steadyState)
+            throw new IllegalArgumentException("Islands evolve generation by generation and cannot run in steady state");
     }
 
     public final MagicFormat getFormat() {
-        return this.format;
+        return this.targets.get(0).getFormat();
     }
 
     public final MagicColor[] getColors() {
-        return this.colors;
+        return this.targets.get(0).getColors();
+    }
+
+    /**
+     * @return the formats and colors to build decks for, together in one run
+     */
+    public final List<Target> getTargets() {
+        return this.targets;
     }
 
     public final String getSaveDir() {
         return this.saveDir;
     }
 
+    public final SequentialTest getSequentialTest() {
+        return this.sequentialTest;
+    }
+
+    /**
+     * @return the port remote duel workers connect to, or 0 to play duels in local worker processes
+     */
+    public final int getCoordinatorPort() {
+        return this.coordinatorPort;
+    }
+
+    /**
+     * @return whether to continue from the newest checkpoint instead of starting a new run
+     */
+    public final boolean isResume() {
+        return this.resume;
+    }
+
+    /**
+     * @return the number of cores duel workers may use, or 0 to use all of them
+     */
+    public final int getCores() {
+        return this.cores;
+    }
+
+    /**
+     * @return the megabytes of memory duel workers may use, or 0 to use the physical memory not taken by FiraGA itself
+     */
+    public final long getMemoryMB() {
+        return this.memoryMB;
+    }
+
+    /**
+     * @return the number of games of a duel played together on one worker
+     */
+    public final int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @return the fraction of decks the surrogate model lets through to duels, or 0 to duel every deck
+     */
+    public final double getSurrogateFraction() {
+        return this.surrogateFraction;
+    }
+
+    /**
+     * @return whether to stop evaluating candidates that cannot reach the survivors of the previous generation
+     */
+    public final boolean isRace() {
+        return this.race;
+    }
+
+    /**
+     * @return the number of islands the population is split over, or 1 to evolve a single population
+     */
+    public final int getIslands() {
+        return this.islands;
+    }
+
+    public final Islands.Topology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * @return the number of generations between migrations from an island
+     */
+    public final int getMigrationInterval() {
+        return this.migrationInterval;
+    }
+
+    /**
+     * @return whether to breed a new offspring whenever an evaluation finishes instead of waiting for the generation
+     */
+    public final boolean isSteadyState() {
+        return this.steadyState;
+    }
+
+    /**
+     * @return the milliseconds after which a game is abandoned
+     */
+    public final long getGameMillis() {
+        return this.gameMillis;
+    }
+
+    /**
+     * @return the milliseconds after which a duel is scored from the games it finished, or 0 to wait for every game
+     */
+    public final long getDuelMillis() {
+        return this.duelMillis;
+    }
+
+    public final WorkerProfile getWorkerProfile() {
+        return this.workerProfile;
+    }
+
+    /**
+     * @return whether local duel workers boot from an image holding only the cards of the run
+     */
+    public final boolean isWorkerImage() {
+        return this.workerImage;
+    }
+
+    /**
+     * @return the number of generations a card must go unused or harmful before it is retired, or 0 to keep every card
+     */
+    public final int getPruneGenerations() {
+        return this.pruneGenerations;
+    }
+
+    /**
+     * @return the fraction of the cards added to decks that is drawn from retired cards
+     */
+    public final double getExploration() {
+        return this.exploration;
+    }
+
+    /**
+     * @return the number of games a new deck plays against each opponent before the budget spreads the rest, or 0 to
+     *         play full duels
+     */
+    public final int getInitialGames() {
+        return this.initialGames;
+    }
+
+    /**
+     * @return the fidelity of each level, the last one applying to the levels past the end of the list
+     */
+    public final List<Fidelity> getFidelities() {
+        return this.fidelities;
+    }
+
+    /**
+     * @return the backend that plays duels without Magarena to measure throughput, or null to play real duels
+     */
+    public final SyntheticBackend getSyntheticBackend() {
+        return this.syntheticBackend;
+    }
+
+    /**
+     * @return the seed of the evolution and of the duels, or null for a random one
+     */
+    public final Long getSeed() {
+        return this.seed;
+    }
+
+    private static final List<Fidelity> parseFidelities(final String fidelitiesString) {
+        // Levels with the same fidelity share it, so that its throughput is counted once
+        final Map<String, Fidelity> fidelities = new HashMap<>();
+        return Arrays.stream(fidelitiesString.split("\\+"))
+            .map(String::trim)
+            .map(fidelity -> fidelities.computeIfAbsent(fidelity.toUpperCase(), key -> Fidelity.parse(fidelity)))
+            .collect(Collectors.toList());
+    }
+
+    private static final WorkerProfile parseWorkerProfile(final String profileString) {
+        return Arrays.stream(WorkerProfile.values())
+            .filter(profile -> profile.name().equalsIgnoreCase(profileString))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Worker profile is " + profileString + ", expected default, throughput or compact."));
+    }
+
+    private static final List<Target> parseTargets(final String targetsString) {
+        final List<Target> targets = Arrays.stream(targetsString.split("\\+"))
+            .map(String::trim)
+            .map(targetString -> {
+                final String[] parts = targetString.split(":");
+                if (parts.length < 2 || parts.length > 3)
+                    throw new IllegalArgumentException("Target is " + targetString + ", expected FORMAT:COLORS or FORMAT:COLORS:WEIGHT.");
+                final double weight = parts.length == 3 ? parseWeight(parts[2].trim()) : 1;
+                return new Target(parseFormat(parts[0].trim()), parseColors(parts[1].trim()), weight);
+            }).collect(Collectors.toList());
+        if (targets.stream().map(Target::getName).distinct().count() < targets.size())
+            throw new IllegalArgumentException("Targets " + targetsString + " contain the same format and colors more than once");
+        return targets;
+    }
+
+    private static final double parseWeight(final String weightString) {
+        try {
+            final double weight = Double.parseDouble(weightString);
+            if (weight > 0)
+                return weight;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Target weight is " + weightString + ", expected a positive number.");
+    }
+
     private static final MagicFormat parseFormat(final String formatString) {
         return MagicPredefinedFormat.values().stream()
             .filter(fmt -> fmt.getName().equalsIgnoreCase(formatString))
@@ -100,4 +525,104 @@ public final class CmdLineArgs {
         }
     }
 
+    private static final SequentialTest parseSequentialTest(final String earlyStopString) {
+        try {
+            final double threshold = Double.parseDouble(earlyStopString);
+            if (threshold > 0 && threshold < 1)
+                return SequentialTest.of(threshold);
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Early stopping threshold is " + earlyStopString + ", expected a win rate between 0 and 1, both excluded.");
+    }
+
+    private static final double parseFraction(final String name, final String fractionString) {
+        try {
+            final double fraction = Double.parseDouble(fractionString);
+            if (fraction > 0 && fraction <= 1)
+                return fraction;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " is " + fractionString + ", expected a number above 0 and at most 1.");
+    }
+
+    private static final Islands.Topology parseTopology(final String topologyString) {
+        return Arrays.stream(Islands.Topology.values())
+            .filter(topology -> topology.name().equalsIgnoreCase(topologyString))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Migration topology is " + topologyString + ", expected ring or complete."));
+    }
+
+    private static final long parseBudget(final String name, final String budgetString) {
+        try {
+            final long budget = Long.parseLong(budgetString);
+            if (budget > 0)
+                return budget;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(name + " is " + budgetString + ", expected a positive number.");
+    }
+
+    private static final int parsePort(final String portString) {
+        try {
+            final int port = Integer.parseInt(portString);
+            if (port > 0 && port < 65536)
+                return port;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Coordinator port is " + portString + ", expected a number between 1 and 65535.");
+    }
+
+    private static final long parseSeed(final String seedString) {
+        try {
+            return Long.parseLong(seedString);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Seed is " + seedString + ", expected a number.");
+        }
+    }
+
+
+    /**
+     * A format and colors to build decks for, with its weight in the duel scheduler.
+     */
+    public static final class Target {
+
+        private final MagicFormat format;
+        private final MagicColor[] colors;
+        private final double weight;
+
+        Target(final MagicFormat format, final MagicColor[] colors, final double weight) {
+            this.format = format;
+            this.colors = colors;
+            this.weight = weight;
+        }
+
+        public final MagicFormat getFormat() {
+            return this.format;
+        }
+
+        public final MagicColor[] getColors() {
+            return this.colors;
+        }
+
+        public final double getWeight() {
+            return this.weight;
+        }
+
+        /**
+         * @return the format and colors, e.g. Standard_WU, as used in the save directory
+         */
+        public final String getName() {
+            final StringBuilder name = new StringBuilder(this.format.getName().replace(' ', '_')).append('_');
+            if (this.colors.length == 0)
+                name.append('C');
+            Arrays.stream(this.colors).forEach(c -> name.append(Character.toUpperCase(c.getSymbol())));
+            return name.toString();
+        }
+
+    }
+
 }
@@ -17,19 +17,42 @@
 
 package firaga;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import firaga.jenetics.Checkpoint;
+import firaga.jenetics.CheckpointWriter;
 import firaga.jenetics.DeckBuilderEngine;
+import firaga.jenetics.GameBudget;
+import firaga.jenetics.Islands;
+import firaga.jenetics.Race;
+import firaga.jenetics.SpellPoolPruner;
+import firaga.jenetics.SteadyState;
+import firaga.jenetics.Surrogate;
+import firaga.magic.DuelScheduler;
+import firaga.magic.DuelShare;
 import firaga.magic.MagicDeckCreator;
+import firaga.magic.MagicDuelHandler;
+import firaga.magic.duel.DuelCoordinator;
+import firaga.magic.duel.DuelWorkerPool;
+import firaga.magic.duel.WorkerImage;
+import firaga.util.Metrics;
+import firaga.util.Throughput;
 import io.jenetics.IntegerGene;
 import io.jenetics.Phenotype;
 import io.jenetics.engine.Engine;
 import io.jenetics.engine.EvolutionResult;
 import io.jenetics.engine.EvolutionStatistics;
 import io.jenetics.stat.DoubleMomentStatistics;
+import io.jenetics.util.ISeq;
+import io.jenetics.util.RandomRegistry;
 import magic.utility.MagicSystem;
 import magic.utility.ProgressReporter;
 
@@ -41,28 +64,184 @@ public final class Main {
         MagicSystem.initialize(reporter);
 
         final CmdLineArgs cmdLineArgs = new CmdLineArgs(args);
+        final List<CmdLineArgs.Target> targets = cmdLineArgs.getTargets();
 
-        final int maxThreads = Runtime.getRuntime().availableProcessors();
+        DuelScheduler.configure(cmdLineArgs.getCores(), cmdLineArgs.getMemoryMB(), cmdLineArgs.getBatchSize(), cmdLineArgs.getDuelMillis());
+        if (cmdLineArgs.getSeed() != null)
+            DuelScheduler.getInstance().setSeed(cmdLineArgs.getSeed());
+        MagicDuelHandler.setSequentialTest(cmdLineArgs.getSequentialTest());
+        MagicDuelHandler.setGameMillis(cmdLineArgs.getGameMillis());
+        if (cmdLineArgs.getSyntheticBackend() != null) {
+            MagicDuelHandler.setBackend(cmdLineArgs.getSyntheticBackend());
+        }
+        else if (cmdLineArgs.getCoordinatorPort() != 0) {
+            try {
+                MagicDuelHandler.setBackend(new DuelCoordinator(cmdLineArgs.getCoordinatorPort()));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        else {
+            final WorkerImage image = cmdLineArgs.isWorkerImage()
+                ? WorkerImage.build(Paths.get("build", "worker-image"), targets.stream().map(CmdLineArgs.Target::getFormat).distinct().collect(Collectors.toList()), cmdLineArgs.getWorkerProfile())
+                : WorkerImage.FULL;
+            DuelWorkerPool.configure(cmdLineArgs.getWorkerProfile(), image);
+        }
+
+        // Every candidate of a generation waits in the duel scheduler at once, so that it can share slots fairly
+        final int maxThreads = DeckBuilderEngine.DEFAULT_ENGINE_BUILDER.getPopulationSize() * targets.size();
         final ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
 
+        final Metrics metrics = Metrics.getInstance();
+        metrics.registerGauge("queuedDuels", MagicDuelHandler.getBackend()::getQueuedDuels);
+        metrics.registerGauge("scheduledBatches", DuelScheduler.getInstance()::getQueuedBatches);
+        metrics.registerGauge("busySlots", DuelScheduler.getInstance()::getBusySlots);
+        metrics.registerGauge("stragglers", DuelScheduler.getInstance()::getStragglers);
+        metrics.registerGauge("timedOutDuels", DuelScheduler.getInstance()::getTimedOutDuels);
+        cmdLineArgs.getFidelities().stream().distinct().forEach(fidelity ->
+                metrics.registerGauge("games." + fidelity.getName().replace(':', '_'), fidelity::getPlayedGames));
+        final DuelScheduler scheduler = DuelScheduler.getInstance();
+        final Throughput throughput = new Throughput(metrics::getFitnessEvaluations, scheduler::getUtilisation, scheduler::getBarrierIdleNanos, scheduler::getSlotNanos);
+
         try {
             final Engine.Builder<IntegerGene, Integer> engineBuilder = DeckBuilderEngine.DEFAULT_ENGINE_BUILDER.copy().executor(executor);
-            final DeckBuilderEngine engine = new DeckBuilderEngine(cmdLineArgs.getFormat(), engineBuilder, cmdLineArgs.getColors());
+            if (targets.size() == 1) {
+                run(targets.get(0), "", cmdLineArgs, engineBuilder, metrics, throughput);
+                return;
+            }
+
+            // RandomRegistry is global, so the targets leave Jenetics' default thread-local generators in place instead of
+            // each setting its own as a single target does. Without a generator of their own they cannot be resumed.
+            metrics.startFlushing(Paths.get(cmdLineArgs.getSaveDir()).resolve("metrics.tsv"), 1, TimeUnit.MINUTES);
+            final List<Thread> threads = new ArrayList<>();
+            for (final CmdLineArgs.Target target : targets) {
+                final Thread thread = new Thread(() -> run(target, target.getName() + ".", cmdLineArgs, engineBuilder, metrics, throughput), target.getName());
+                thread.setUncaughtExceptionHandler((t, e) -> {
+                    System.err.println("Target " + t.getName() + " failed:");
+                    e.printStackTrace();
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (final Thread thread : threads)
+                thread.join();
+            System.out.println("Duel shares:");
+            DuelScheduler.getInstance().getShares().forEach(share -> System.out.println("  " + share));
+            System.out.println(throughput);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            MagicDuelHandler.getBackend().shutdown();
+        }
+    }
+
+    /**
+     * Builds the decks of one target. With several targets, the random generator is left to Jenetics, the metrics file
+     * is set up by the caller and the gauges of the target are prefixed with its name.
+     */
+    private static final void run(final CmdLineArgs.Target target, final String gaugePrefix, final CmdLineArgs cmdLineArgs, final Engine.Builder<IntegerGene, Integer> engineBuilder, final Metrics metrics, final Throughput throughput) {
+        DeckBuilderEngine engine = null;
+        CheckpointWriter checkpointWriter = null;
+        try {
+            engine = new DeckBuilderEngine(target.getFormat(), engineBuilder, cmdLineArgs.getSaveDir(), 4, target.getColors());
+            engine.setShare(new DuelShare(target.getName(), target.getWeight()));
+            engine.setFidelities(cmdLineArgs.getFidelities());
             final EvolutionStatistics<Integer, DoubleMomentStatistics> statistics = EvolutionStatistics.ofNumber(); 
-            EvolutionResult<IntegerGene, Integer> result = engine.stream(0).peek(statistics).collect(EvolutionResult.toBestEvolutionResult());
-            System.out.println("End level 0");
-            System.out.println(statistics);
-
-            for (int level = 1; level < 4; level++) {
-                final EvolutionResult<IntegerGene, Integer> nextResult = engine.stream(result.getPopulation(), level).peek(statistics).collect(EvolutionResult.toBestEvolutionResult());
-                System.out.println("End level " + level);
-                System.out.println(statistics);
+
+            if (cmdLineArgs.getSurrogateFraction() > 0)
+                engine.setSurrogate(new Surrogate(cmdLineArgs.getSurrogateFraction(), 0.1, engine.getSpellPool().size()));
+            if (cmdLineArgs.isSteadyState())
+                engine.setSteadyState(new SteadyState(engineBuilder));
+            if (cmdLineArgs.getInitialGames() > 0)
+                engine.setGameBudget(new GameBudget(engineBuilder, cmdLineArgs.getInitialGames()));
+            if (cmdLineArgs.getPruneGenerations() > 0)
+                engine.setPruner(new SpellPoolPruner(5, cmdLineArgs.getPruneGenerations(), cmdLineArgs.getExploration()));
+
+            metrics.registerGauge(gaugePrefix + "fitnessCacheHits", engine.getFitnessCache()::getHits);
+            metrics.registerGauge(gaugePrefix + "fitnessCacheMisses", engine.getFitnessCache()::getMisses);
+            metrics.registerGauge(gaugePrefix + "games", engine.getShare()::getGames);
+            if (engine.getSurrogate() != null)
+                metrics.registerGauge(gaugePrefix + "surrogatePredictions", engine.getSurrogate()::getPredicted);
+            if (engine.getPruner() != null)
+                metrics.registerGauge(gaugePrefix + "activeCards", engine.getActivePool()::getActiveCount);
+
+            final Checkpoint checkpoint = cmdLineArgs.isResume() ? Checkpoint.read(engine.getCheckpointPath()) : null;
+            final Random random;
+            if (gaugePrefix.isEmpty()) {
+                if (checkpoint != null)
+                    random = checkpoint.getRandom();
+                else
+                    random = cmdLineArgs.getSeed() != null ? new Random(cmdLineArgs.getSeed()) : new Random();
+                RandomRegistry.setRandom(random);
+                metrics.startFlushing(engine.getSaveDir().resolve("metrics.tsv"), 1, TimeUnit.MINUTES);
+            }
+            else {
+                // Recorded in the checkpoint but never restored, as runs with several targets are not resumed
+                random = RandomRegistry.getRandom();
+            }
+            checkpointWriter = new CheckpointWriter(engine.getCheckpointPath(), random, engine);
+            if (cmdLineArgs.isRace())
+                engine.setRace(new Race(5, 0.05, random.nextLong()));
+
+            if (cmdLineArgs.getIslands() > 1) {
+                final Islands islands = new Islands(cmdLineArgs.getIslands(), cmdLineArgs.getTopology(), cmdLineArgs.getMigrationInterval(), 1);
+                ISeq<Phenotype<IntegerGene, Integer>> population = null;
+                for (int level = 0; level < 4; level++) {
+                    population = engine.evolve(islands, population == null ? null : engine.promote(population, level - 1), level, statistics);
+                    printLevel(target, level, statistics + System.lineSeparator() + islands, engine, metrics, throughput);
+                }
+                return;
+            }
+
+            final int firstLevel;
+            EvolutionResult<IntegerGene, Integer> result;
+            if (checkpoint != null) {
+                firstLevel = checkpoint.getLevel();
+                System.out.println("Resume " + target.getName() + " level " + firstLevel + " after generation " + checkpoint.getGeneration());
+                System.out.println(checkpoint.getStatistics());
+                result = engine.stream(checkpoint).peek(statistics).peek(checkpointWriter.checkpoint(firstLevel, statistics)).collect(EvolutionResult.toBestEvolutionResult());
+            }
+            else {
+                firstLevel = 0;
+                result = engine.stream(0).peek(statistics).peek(checkpointWriter.checkpoint(0, statistics)).collect(EvolutionResult.toBestEvolutionResult());
+            }
+            printLevel(target, firstLevel, statistics, engine, metrics, throughput);
+
+            for (int level = firstLevel + 1; level < 4; level++) {
+                final EvolutionResult<IntegerGene, Integer> nextResult = engine.stream(engine.promote(result.getPopulation(), level - 1), level).peek(statistics).peek(checkpointWriter.checkpoint(level, statistics)).collect(EvolutionResult.toBestEvolutionResult());
+                printLevel(target, level, statistics, engine, metrics, throughput);
                 result = nextResult;
             }
 
         } finally {
-            executor.shutdown();
+            if (engine != null)
+                engine.close();
+            if (checkpointWriter != null)
+                checkpointWriter.close();
         }
     }
 
+    private static final synchronized void printLevel(final CmdLineArgs.Target target, final int level, final Object statistics, final DeckBuilderEngine engine, final Metrics metrics, final Throughput throughput) {
+        System.out.println("End " + target.getName() + " level " + level);
+        System.out.println(statistics);
+        System.out.println(engine.getFitnessCache());
+        if (engine.getSurrogate() != null)
+            System.out.println(engine.getSurrogate());
+        if (engine.getRace() != null)
+            System.out.println(engine.getRace());
+        if (engine.getGameBudget() != null)
+            System.out.println(engine.getGameBudget());
+        if (engine.getPruner() != null)
+            System.out.println(engine.getPruner() + ", " + engine.getActivePool());
+        System.out.println(engine.getShare());
+        if (engine.getPromotion() != null)
+            System.out.println(engine.getPromotion());
+        engine.getFidelities().stream().distinct().forEach(System.out::println);
+        System.out.println(DuelScheduler.getInstance());
+        System.out.println(MagicDuelHandler.getBackend());
+        System.out.println(metrics);
+        System.out.println(throughput);
+    }
+
 }
@@ -0,0 +1,106 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * The cards of the spell pool that mutation may add to a deck.
+ *
+ * Every card starts active. Retired cards stay valid in a {@link DeckChromosome}, so decks holding them need neither
+ * remapping nor another evaluation, but they only come back through the exploration quota: that fraction of the
+ * cards added to decks is drawn from the retired cards instead of the active ones.
+ */
+public final class ActivePool {
+
+    private final int spellPoolSize;
+    private volatile Cards cards;
+
+    public ActivePool(final int spellPoolSize) {
+        this.spellPoolSize = spellPoolSize;
+        this.cards = new Cards(new BitSet(), spellPoolSize, 0);
+    }
+
+    /**
+     * @return a random spell pool index, from the retired cards with the exploration probability and from the active
+     *         cards otherwise
+     */
+    public final int pick(final Random random) {
+        final Cards cards = this.cards;
+        if (cards.retired.length > 0 && (cards.active.length == 0 || random.nextDouble() < cards.exploration))
+            return cards.retired[random.nextInt(cards.retired.length)];
+        return cards.active[random.nextInt(cards.active.length)];
+    }
+
+    public final boolean isActive(final int index) {
+        return !this.cards.retiredSet.get(index);
+    }
+
+    public final int getSpellPoolSize() {
+        return this.spellPoolSize;
+    }
+
+    public final int getActiveCount() {
+        return this.cards.active.length;
+    }
+
+    /**
+     * @return the spell pool indices of the retired cards
+     */
+    public final BitSet getRetired() {
+        return (BitSet) this.cards.retiredSet.clone();
+    }
+
+    /**
+     * Replaces the retired cards.
+     *
+     * @param exploration the fraction of picks drawn from the retired cards
+     */
+    public final void setRetired(final BitSet retired, final double exploration) {
+        this.cards = new Cards((BitSet) retired.clone(), this.spellPoolSize, exploration);
+    }
+
+    @Override
+    public final String toString() {
+        return this.getActiveCount() + "/" + this.spellPoolSize + " cards active";
+    }
+
+    /**
+     * An immutable snapshot, so picks never see a half-updated pool.
+     */
+    private static final class Cards {
+
+        private final BitSet retiredSet;
+        private final int[] active;
+        private final int[] retired;
+        private final double exploration;
+
+        private Cards(final BitSet retiredSet, final int spellPoolSize, final double exploration) {
+            this.retiredSet = retiredSet;
+            this.retired = retiredSet.stream().filter(i -> i < spellPoolSize).toArray();
+            this.active = new int[spellPoolSize - this.retired.length];
+            for (int i = 0, j = 0; i < spellPoolSize; i++)
+                if (!retiredSet.get(i))
+                    this.active[j++] = i;
+            this.exploration = exploration;
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.engine.EvolutionResult;
+import io.jenetics.util.ISeq;
+
+/**
+ * A snapshot of an evolution run after one generation: the population with its fitness values, the level and
+ * generation it was taken at, the state of the random engine and of the spell pool pruner, and the statistics printed
+ * so far.
+ */
+public final class Checkpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int level;
+    private final long generation;
+    private final int spellPoolSize;
+    private final int[][] entries;
+    private final long[] birthGenerations;
+    private final int[] fitness;
+    private final boolean[] provisional;
+    private final Random random;
+    private final String statistics;
+    private final SpellPoolPruner.State pruning;
+
+    /**
+     * @param pruning the state of the spell pool pruner, or null without a pruner
+     * @param provisional tells the decks whose fitness is only a prediction
+     */
+    public Checkpoint(final EvolutionResult<IntegerGene, Integer> result, final int level, final Random random, final String statistics, final SpellPoolPruner.State pruning, final Predicate<Genotype<IntegerGene>> provisional) {
+        final ISeq<Phenotype<IntegerGene, Integer>> population = result.getPopulation();
+        this.level = level;
+        this.generation = result.getGeneration();
+        this.spellPoolSize = population.get(0).getGenotype().getChromosome().length();
+        this.entries = new int[population.size()][];
+        this.birthGenerations = new long[population.size()];
+        this.fitness = new int[population.size()];
+        this.provisional = new boolean[population.size()];
+        for (int i = 0; i < population.size(); i++) {
+            this.entries[i] = population.get(i).getGenotype().getChromosome().as(DeckChromosome.class).getEntries();
+            this.birthGenerations[i] = population.get(i).getGeneration();
+            this.fitness[i] = population.get(i).getFitness();
+            this.provisional[i] = provisional.test(population.get(i).getGenotype());
+        }
+        this.random = random;
+        this.statistics = statistics;
+        this.pruning = pruning;
+    }
+
+    public final int getLevel() {
+        return this.level;
+    }
+
+    public final long getGeneration() {
+        return this.generation;
+    }
+
+    public final int getSpellPoolSize() {
+        return this.spellPoolSize;
+    }
+
+    public final int getPopulationSize() {
+        return this.entries.length;
+    }
+
+    /**
+     * @param activePool the cards mutation picks from in the restored deck, which must match the checkpoint's pool
+     */
+    public final Genotype<IntegerGene> getGenotype(final int i, final ActivePool activePool) {
+        return Genotype.of(DeckChromosome.of(activePool).newInstance(this.entries[i].clone(), this.entries[i].length));
+    }
+
+    public final long getBirthGeneration(final int i) {
+        return this.birthGenerations[i];
+    }
+
+    public final int getFitness(final int i) {
+        return this.fitness[i];
+    }
+
+    /**
+     * @return whether the fitness of a deck is only a prediction, to be evaluated again on resume
+     */
+    public final boolean isProvisional(final int i) {
+        // Checkpoints written before provisional fitness values were told apart hold none
+        return this.provisional != null && this.provisional[i];
+    }
+
+    public final Random getRandom() {
+        return this.random;
+    }
+
+    public final String getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * @return the state of the spell pool pruner, or null if the run had no pruner or the checkpoint predates pruning
+     */
+    public final SpellPoolPruner.State getPruning() {
+        return this.pruning;
+    }
+
+    public final byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(this);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static final Checkpoint read(final Path path) {
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Files.readAllBytes(path)))) {
+            return (Checkpoint) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Cannot read checkpoint " + path, e);
+        }
+    }
+
+}
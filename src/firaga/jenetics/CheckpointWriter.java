@@ -0,0 +1,100 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import io.jenetics.IntegerGene;
+import io.jenetics.engine.EvolutionResult;
+
+/**
+ * Writes a {@link Checkpoint} after every generation.
+ *
+ * The snapshot is serialized on the evolution thread so that it matches the generation, while the file is written
+ * on a background thread to a temporary file and then moved over the previous checkpoint, so a crash never leaves a
+ * partial checkpoint behind.
+ */
+public final class CheckpointWriter {
+
+    private final Path path;
+    private final Random random;
+    private final DeckBuilderEngine engine;
+    private final ExecutorService executor;
+
+    /**
+     * @param engine gives the state of its spell pool pruner and its provisional fitness values after each generation
+     */
+    public CheckpointWriter(final Path path, final Random random, final DeckBuilderEngine engine) {
+        this.path = path;
+        this.random = random;
+        this.engine = engine;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "CheckpointWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public final Consumer<EvolutionResult<IntegerGene, Integer>> checkpoint(final int level, final Object statistics) {
+        return result -> this.write(new Checkpoint(result, level, this.random, statistics.toString(), this.engine.getPruningState(), gt -> this.engine.isProvisional(level, gt)));
+    }
+
+    public final void write(final Checkpoint checkpoint) {
+        final byte[] bytes = checkpoint.toByteArray();
+        this.executor.execute(() -> this.writeAtomically(bytes));
+    }
+
+    /**
+     * Waits for pending checkpoints to be written.
+     */
+    public final void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeAtomically(final byte[] bytes) {
+        final Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try {
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(true);
+            }
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to write checkpoint " + this.path + ": " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import firaga.magic.CardPoolIndex;
+import firaga.magic.MagicDeckCreator;
+import firaga.magic.land.LandGenerator;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.util.ISeq;
+import magic.utility.DeckUtils;
+
+/**
+ * Archives every generation of a run on a background thread.
+ *
+ * Each distinct deck is saved once as {@code decks/HASH.dec}, named by a hash of its cards, and every generation
+ * appends one line of {@code level, generation, HASH:fitness,...} to {@code generations.tsv}. When the bounded queue
+ * of pending generations is full, the evolution thread archives the generation itself.
+ *
+ * Run this class with {@code ARCHIVE_DIR [OUTPUT_DIR]} to export the archive to one directory per generation.
+ */
+public final class DeckArchive {
+
+    private static final String DECKS_DIR = "decks";
+    private static final String INDEX_FILE = "generations.tsv";
+    private static final String SEPARATOR = "\t";
+
+    private final Path decksDir;
+    private final Path indexFile;
+    private final CardPoolIndex cardPoolIndex;
+    private final LandGenerator landGenerator;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> savedDecks;
+
+    public DeckArchive(final Path dir, final CardPoolIndex cardPoolIndex, final LandGenerator landGenerator, final int capacity) {
+        this.decksDir = dir.resolve(DECKS_DIR);
+        this.indexFile = dir.resolve(INDEX_FILE);
+        this.cardPoolIndex = cardPoolIndex;
+        this.landGenerator = landGenerator;
+        this.executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(capacity),
+                runnable -> new Thread(runnable, "DeckArchive"), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+
+        try {
+            Files.createDirectories(this.decksDir);
+            try (final Stream<Path> files = Files.list(this.decksDir)) {
+                this.savedDecks = files
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".dec"))
+                    .map(name -> name.substring(0, name.length() - 4))
+                    .collect(Collectors.toCollection(HashSet::new));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public final void add(final int level, final long generation, final ISeq<Phenotype<IntegerGene, Integer>> population) {
+        this.executor.execute(() -> this.write(level, generation, population));
+    }
+
+    /**
+     * Waits for pending generations to be archived.
+     */
+    public final void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void write(final int level, final long generation, final ISeq<Phenotype<IntegerGene, Integer>> population) {
+        final StringBuilder line = new StringBuilder();
+        line.append(level).append(SEPARATOR).append(generation).append(SEPARATOR);
+        for (int i = 0; i < population.size(); i++) {
+            final Genotype<IntegerGene> genotype = population.get(i).getGenotype();
+            final String hash = hash(genotype.getChromosome().as(DeckChromosome.class).getEntries());
+            if (this.savedDecks.add(hash))
+                DeckUtils.saveDeck(this.decksDir.resolve(hash + ".dec").toString(), MagicDeckCreator.getMagicDeck(this.cardPoolIndex, genotype, this.landGenerator));
+            if (i > 0)
+                line.append(',');
+            line.append(hash).append(':').append(population.get(i).getFitness());
+        }
+        line.append(System.lineSeparator());
+
+        try {
+            Files.write(this.indexFile, line.toString().getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Failed to archive level " + level + " generation " + generation + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Recreates the {@code Level_L/Generation_G/Deck_I_(FITNESS).dec} layout of an archive in the output directory.
+     */
+    public static final void export(final Path archiveDir, final Path outputDir) throws IOException {
+        final Path decksDir = archiveDir.resolve(DECKS_DIR);
+        try (final BufferedReader reader = Files.newBufferedReader(archiveDir.resolve(INDEX_FILE))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(SEPARATOR);
+                final Path generationDir = outputDir.resolve("Level_" + fields[0]).resolve("Generation_" + fields[1]);
+                Files.createDirectories(generationDir);
+                final String[] decks = fields[2].split(",");
+                for (int i = 0; i < decks.length; i++) {
+                    final String[] deck = decks[i].split(":");
+                    Files.copy(decksDir.resolve(deck[0] + ".dec"), generationDir.resolve("Deck_" + i + "_(" + deck[1] + ").dec"), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    private static final String hash(final int[] entries) {
+        final ByteBuffer buffer = ByteBuffer.allocate(entries.length * Integer.BYTES);
+        buffer.asIntBuffer().put(entries);
+        try {
+            return String.format("%040x", new BigInteger(1, MessageDigest.getInstance("SHA-1").digest(buffer.array())));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 2) {
+            System.err.println("DeckArchive must be run with an archive directory and an optional output directory.");
+            System.exit(1);
+        }
+        final Path archiveDir = Paths.get(args[0]);
+        export(archiveDir, args.length == 2 ? Paths.get(args[1]) : archiveDir);
+    }
+
+}
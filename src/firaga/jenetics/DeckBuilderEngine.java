@@ -21,31 +21,47 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import firaga.magic.MagicDeckCreator;
 import firaga.magic.MagicDuelHandler;
+import firaga.magic.CardPoolIndex;
+import firaga.magic.DuelScheduler;
+import firaga.magic.DuelShare;
+import firaga.magic.Fidelity;
 import firaga.magic.land.LandGenerator;
+import firaga.magic.duel.DuelFailedException;
+import firaga.magic.duel.DuelResult;
 import firaga.magic.land.LandPool;
-import firaga.util.Counter;
+import firaga.util.Metrics;
 import io.jenetics.EliteSelector;
-import io.jenetics.GaussianMutator;
 import io.jenetics.Genotype;
 import io.jenetics.IntegerChromosome;
 import io.jenetics.IntegerGene;
 import io.jenetics.Phenotype;
-import io.jenetics.SwapMutator;
 import io.jenetics.TournamentSelector;
 import io.jenetics.TruncationSelector;
-import io.jenetics.UniformCrossover;
 import io.jenetics.engine.Engine;
 import io.jenetics.engine.EvolutionResult;
+import io.jenetics.engine.EvolutionStream;
 import io.jenetics.engine.Limits;
 import io.jenetics.util.Factory;
 import io.jenetics.util.ISeq;
@@ -58,11 +74,16 @@ import magic.utility.DeckUtils;
 
 public final class DeckBuilderEngine {
 
+    // Benchmark decks by format and number of levels, shared by the engines of one JVM
+    private static final Map<String, List<MagicDeck[]>> BENCHMARK_DECKS = new ConcurrentHashMap<>();
+
     // Magic related parameters
     private final List<MagicCardDefinition> spellPool;
     private final int spellPoolSize;
+    private final CardPoolIndex cardPoolIndex;
+    private final ActivePool activePool;
     private final LandGenerator landGenerator;
-    private final List<String[]> benchmarkDecks;
+    private final List<MagicDeck[]> benchmarkDecks;
     private final String saveDir;
 
     // Genetic algorithm parameters
@@ -74,15 +95,26 @@ public final class DeckBuilderEngine {
         .survivorsSelector(new TruncationSelector<>(5))
         .offspringSelector(new TournamentSelector<>(3))
         .alterers(
-                new UniformCrossover<>(1.0, 0.5),
-                new GaussianMutator<>(0.01),
-                new SwapMutator<>(0.2));
+                new DeckCrossover<>(1.0, 0.5),
+                new DeckGaussianMutator<>(0.1),
+                new DeckSwapMutator<>(0.2));
 
+    private final Engine.Builder<IntegerGene, Integer> engineBuilder;
     private final List<Engine<IntegerGene, Integer>> engines;
     private final Factory<Genotype<IntegerGene>> gtf;
 
     // Utility
-    private final Counter counter;
+    private final FitnessCache fitnessCache;
+    private final Map<Integer, Set<Genotype<IntegerGene>>> provisional;
+    private final DeckArchive deckArchive;
+    private volatile Surrogate surrogate;
+    private volatile Race race;
+    private volatile SteadyState steadyState;
+    private volatile DuelShare share;
+    private volatile SpellPoolPruner pruner;
+    private volatile GameBudget gameBudget;
+    private volatile List<Fidelity> fidelities;
+    private volatile String promotion;
 
     public DeckBuilderEngine(final MagicFormat format, final MagicColor... colors) {
         this(format, DEFAULT_ENGINE_BUILDER, "output_decks", 4, colors);
@@ -103,21 +135,24 @@ public final class DeckBuilderEngine {
             .filter(card -> (card.getColorFlags() | colorMask) == colorMask)
             .collect(Collectors.toList());
         this.spellPoolSize = this.spellPool.size();
+        this.cardPoolIndex = new CardPoolIndex(this.spellPool);
+        this.activePool = new ActivePool(this.spellPoolSize);
         this.landGenerator = new LandPool(format, colors);
 
         final String formatNameWithUnderscore = format.getName().replace(' ', '_');
-        this.benchmarkDecks = IntStream.range(0, totalLevel).mapToObj(
-            level -> {
-                try {
-                    return Files.walk(DeckUtils.getDecksFolder())
-                        .filter(Files::isRegularFile)
-                        .filter(file -> file.getFileName().toString().startsWith("Benchmark_" + formatNameWithUnderscore + "_LV" + level))
-                        .map(Path::toString)
-                        .toArray(String[]::new);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }).collect(Collectors.toList());
+        this.benchmarkDecks = BENCHMARK_DECKS.computeIfAbsent(formatNameWithUnderscore + "/" + totalLevel,
+            key -> IntStream.range(0, totalLevel).mapToObj(
+                level -> {
+                    try {
+                        return Files.walk(DeckUtils.getDecksFolder())
+                            .filter(Files::isRegularFile)
+                            .filter(file -> file.getFileName().toString().startsWith("Benchmark_" + formatNameWithUnderscore + "_LV" + level))
+                            .map(DeckUtils::loadDeckFromFile)
+                            .toArray(MagicDeck[]::new);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }).collect(Collectors.toList()));
 
         final StringBuilder savePathBuilder = new StringBuilder();
         savePathBuilder.append(saveDir);
@@ -137,18 +172,33 @@ public final class DeckBuilderEngine {
         else if (!saveDirFile.canWrite())
             throw new RuntimeException("Cannot write to the save directory");
 
-        this.gtf = Genotype.of(DeckChromosome.of(this.spellPoolSize));
+        this.gtf = Genotype.of(DeckChromosome.of(this.activePool));
+        this.engineBuilder = engineBuilder;
         this.engines = IntStream.range(0, totalLevel).mapToObj(
             level -> engineBuilder.copy()
                 .fitnessFunction(this.fitness(level))
                 .genotypeFactory(this.gtf)
                 .build()).collect(Collectors.toList());
 
-        this.counter = new Counter(32);
+        this.fitnessCache = new FitnessCache(4096);
+        this.provisional = new ConcurrentHashMap<>();
+        this.surrogate = null;
+        this.race = null;
+        this.steadyState = null;
+        this.share = DuelShare.DEFAULT;
+        this.pruner = null;
+        this.gameBudget = null;
+        this.fidelities = Collections.singletonList(Fidelity.DEFAULT);
+        this.promotion = null;
+        this.deckArchive = new DeckArchive(Paths.get(this.saveDir), this.cardPoolIndex, this.landGenerator, 16);
     }
 
     public final Stream<EvolutionResult<IntegerGene, Integer>>
     stream(int level) {
+        if (this.steadyState != null)
+            return this.steadyStream(null, 1, level, 50);
+        if (this.gameBudget != null)
+            return this.budgetStream(null, 1, level, 50);
         if (level == this.engines.size() - 1)
             return this.engines.get(level).stream().limit(Limits.bySteadyFitness(10)).peek(this.saveDecks(level));
         else
@@ -157,6 +207,10 @@ public final class DeckBuilderEngine {
 
     public final Stream<EvolutionResult<IntegerGene, Integer>>
     stream(EvolutionResult<IntegerGene, Integer> result, int level) {
+        if (this.steadyState != null)
+            return this.steadyStream(result.getPopulation(), 1, level, 50);
+        if (this.gameBudget != null)
+            return this.budgetStream(result.getPopulation(), 1, level, 50);
         if (level == this.engines.size() - 1)
             return this.engines.get(level).stream(result).limit(Limits.bySteadyFitness(10)).peek(this.saveDecks(level));
         else
@@ -165,41 +219,397 @@ public final class DeckBuilderEngine {
 
     public final Stream<EvolutionResult<IntegerGene, Integer>>
     stream(ISeq<Phenotype<IntegerGene, Integer>> population, int level) {
+        if (this.steadyState != null)
+            return this.steadyStream(population, 1, level, 50);
+        if (this.gameBudget != null)
+            return this.budgetStream(population, 1, level, 50);
         if (level == this.engines.size() - 1)
             return this.engines.get(level).stream(population).limit(Limits.bySteadyFitness(10)).peek(this.saveDecks(level));
         else
             return this.engines.get(level).stream(population).limit(Limits.byFitnessThreshold(15)).limit(50).peek(this.saveDecks(level));
     }
 
+    /**
+     * Continues the level a checkpoint was taken at. The checkpointed fitness values are put in the fitness cache, so
+     * the restored population is not dueled again, and the pruner carries on with its checkpointed counters.
+     */
+    public final Stream<EvolutionResult<IntegerGene, Integer>>
+    stream(Checkpoint checkpoint) {
+        if (checkpoint.getSpellPoolSize() != this.spellPoolSize)
+            throw new IllegalArgumentException("Checkpoint was taken with a spell pool of " + checkpoint.getSpellPoolSize() + " cards, expected " + this.spellPoolSize);
+
+        final SpellPoolPruner pruner = this.pruner;
+        if (pruner != null && checkpoint.getPruning() != null)
+            pruner.restore(checkpoint.getPruning(), this.activePool);
+
+        final int level = checkpoint.getLevel();
+        final ISeq<Phenotype<IntegerGene, Integer>> population = IntStream.range(0, checkpoint.getPopulationSize())
+            .mapToObj(i -> {
+                final Genotype<IntegerGene> genotype = checkpoint.getGenotype(i, this.activePool);
+                if (!checkpoint.isProvisional(i))
+                    this.fitnessCache.put(genotype, level, checkpoint.getFitness(i));
+                return Phenotype.of(genotype, checkpoint.getBirthGeneration(i), this.fitness(level));
+            }).collect(ISeq.toISeq());
+        final long generation = checkpoint.getGeneration() + 1;
+
+        if (this.steadyState != null)
+            return this.steadyStream(population, generation, level, Math.max(1, 50 - checkpoint.getGeneration()));
+        if (this.gameBudget != null)
+            return this.budgetStream(population, generation, level, Math.max(1, 50 - checkpoint.getGeneration()));
+        if (level == this.engines.size() - 1)
+            return this.engines.get(level).stream(population, generation).limit(Limits.bySteadyFitness(10)).peek(this.saveDecks(level));
+        else
+            return this.engines.get(level).stream(population, generation).limit(Limits.byFitnessThreshold(15)).limit(Math.max(1, 50 - checkpoint.getGeneration())).peek(this.saveDecks(level));
+    }
+
+    /**
+     * Evolves a level on islands, each with its own engine for its share of the population.
+     *
+     * @param population the population to start from, or null to start from random decks
+     * @return the last populations of all islands
+     */
+    public final ISeq<Phenotype<IntegerGene, Integer>>
+    evolve(final Islands islands, final ISeq<Phenotype<IntegerGene, Integer>> population, final int level, final Consumer<? super EvolutionResult<IntegerGene, Integer>> consumer) {
+        final int populationSize = this.engineBuilder.getPopulationSize();
+        if (populationSize / islands.getCount() < 2)
+            throw new IllegalArgumentException("Cannot split a population of " + populationSize + " over " + islands.getCount() + " islands");
+        final ISeq<Phenotype<IntegerGene, Integer>> start = population != null
+            ? population
+            : IntStream.range(0, populationSize)
+                .mapToObj(i -> Phenotype.of(this.gtf.newInstance(), 1, this.fitness(level)))
+                .collect(ISeq.toISeq());
+        final List<Engine<IntegerGene, Integer>> islandEngines = IntStream.range(0, islands.getCount()).mapToObj(
+            island -> this.engineBuilder.copy()
+                .populationSize(populationSize / islands.getCount() + (island < populationSize % islands.getCount() ? 1 : 0))
+                .fitnessFunction(this.fitness(level))
+                .genotypeFactory(this.gtf)
+                .build()).collect(Collectors.toList());
+
+        final boolean finalLevel = level == this.engines.size() - 1;
+        return islands.evolve(islandEngines, start, 1, this.fitness(level),
+                () -> finalLevel ? Limits.bySteadyFitness(10) : Limits.<Integer>byFitnessThreshold(15).and(Limits.byFixedGeneration(50)),
+                this.saveDecks(level).andThen(consumer));
+    }
+
+    public final Path getSaveDir() {
+        return Paths.get(this.saveDir);
+    }
+
+    public final Path getCheckpointPath() {
+        return this.getSaveDir().resolve("checkpoint.ser");
+    }
+
+    /**
+     * Waits for the archive to write the generations evolved so far.
+     */
+    public final void close() {
+        this.deckArchive.close();
+    }
+
     public final List<MagicCardDefinition> getSpellPool() {
         return this.spellPool;
     }
 
+    public final Race getRace() {
+        return this.race;
+    }
+
+    /**
+     * Races candidates against the survival cut of the previous generation, or plays every opponent if the race is
+     * null.
+     */
+    public final void setRace(final Race race) {
+        this.race = race;
+    }
+
+    public final SteadyState getSteadyState() {
+        return this.steadyState;
+    }
+
+    /**
+     * Evolves the levels in steady state instead of generation by generation, or with the engines if the steady
+     * state is null.
+     */
+    public final void setSteadyState(final SteadyState steadyState) {
+        this.steadyState = steadyState;
+    }
+
+    public final GameBudget getGameBudget() {
+        return this.gameBudget;
+    }
+
+    /**
+     * Plays a few games per new deck and spends the games saved on the decks whose rank is least certain, or plays a
+     * full duel once per deck if the budget is null.
+     */
+    public final void setGameBudget(final GameBudget gameBudget) {
+        this.gameBudget = gameBudget;
+    }
+
+    /**
+     * @return the fidelity duels of a level are played at
+     */
+    public final Fidelity getFidelity(final int level) {
+        final List<Fidelity> fidelities = this.fidelities;
+        return fidelities.get(Math.min(level, fidelities.size() - 1));
+    }
+
+    public final List<Fidelity> getFidelities() {
+        return this.fidelities;
+    }
+
+    /**
+     * Sets the fidelity of each level, starting with the first. Levels past the end of the list use its last fidelity.
+     */
+    public final void setFidelities(final List<Fidelity> fidelities) {
+        if (fidelities.isEmpty())
+            throw new IllegalArgumentException("No fidelity given");
+        this.fidelities = Collections.unmodifiableList(fidelities);
+    }
+
+    /**
+     * Re-scores the best decks of a level at the fidelity of the next level, against the opponents of this level,
+     * before they move on. Twice as many decks as survive a generation are re-scored and the best half by their new
+     * score goes forward with it, so that decks that only did well against a cheaper AI do not take the next level's
+     * more expensive duels. The rest of the next population is the best of the other decks, then random decks, which
+     * are scored again at the next level.
+     *
+     * @return the population unchanged if the next level has the same fidelity
+     */
+    public final ISeq<Phenotype<IntegerGene, Integer>> promote(final ISeq<Phenotype<IntegerGene, Integer>> population, final int level) {
+        final Fidelity fidelity = this.getFidelity(level + 1);
+        if (level + 1 >= this.engines.size() || fidelity.isSameAs(this.getFidelity(level)))
+            return population;
+
+        final int populationSize = this.engineBuilder.getPopulationSize();
+        final int survivors = Math.max(1, populationSize - (int) Math.rint(populationSize * this.engineBuilder.getOffspringFraction()));
+        final Map<Genotype<IntegerGene>, Phenotype<IntegerGene, Integer>> ranked = new LinkedHashMap<>();
+        population.stream()
+            .sorted(Comparator.comparing(Phenotype<IntegerGene, Integer>::getFitness).reversed())
+            .forEach(pt -> ranked.putIfAbsent(pt.getGenotype(), pt));
+
+        final MagicDeck[] opponents = this.benchmarkDecks.get(level);
+        final DuelShare share = this.share;
+        final List<CompletableFuture<Phenotype<IntegerGene, Integer>>> duels = ranked.values().stream()
+            .limit(2 * survivors)
+            .map(pt -> CompletableFuture.supplyAsync(() -> {
+                final int score = DuelScheduler.getInstance().evaluate(MagicDeckCreator.getMagicDeck(this.cardPoolIndex, pt.getGenotype(), this.landGenerator), opponents, share, fidelity);
+                return Phenotype.<IntegerGene, Integer>of(pt.getGenotype(), pt.getGeneration(), gt -> score).evaluate();
+            }, this.engineBuilder.getExecutor()))
+            .collect(Collectors.toList());
+        final List<Phenotype<IntegerGene, Integer>> promoted = duels.stream()
+            .map(duel -> {
+                try {
+                    return duel.join();
+                } catch (CompletionException e) {
+                    if (!isDuelFailure(e))
+                        throw e;
+                    // A deck whose duels failed does not move on
+                    return null;
+                }
+            })
+            .filter(Objects::nonNull)
+            .sorted(Comparator.comparing(Phenotype<IntegerGene, Integer>::getFitness).reversed())
+            .limit(survivors)
+            .collect(Collectors.toList());
+
+        final Function<Genotype<IntegerGene>, Integer> fitness = this.fitness(level + 1);
+        final Stream<Phenotype<IntegerGene, Integer>> others = ranked.values().stream()
+            .skip(duels.size())
+            .map(pt -> Phenotype.of(pt.getGenotype(), pt.getGeneration(), fitness));
+        final Stream<Phenotype<IntegerGene, Integer>> random = Stream.generate(() -> Phenotype.of(this.gtf.newInstance(), 1, fitness));
+        this.promotion = "Promoted " + promoted.size() + " of " + duels.size() + " decks from level " + level + " at " + fidelity.getName()
+            + ", best fitness " + ranked.values().iterator().next().getFitness() + " before and " + (promoted.isEmpty() ? "none" : promoted.get(0).getFitness()) + " after";
+        return Stream.concat(promoted.stream(), Stream.concat(others, random))
+            .limit(populationSize)
+            .collect(ISeq.toISeq());
+    }
+
+    /**
+     * @return a summary of the last promotion to a level of another fidelity, or null if there was none
+     */
+    public final String getPromotion() {
+        return this.promotion;
+    }
+
+    public final DuelShare getShare() {
+        return this.share;
+    }
+
+    /**
+     * Duels this engine's candidates within the given share of the duel scheduler.
+     */
+    public final void setShare(final DuelShare share) {
+        this.share = share;
+    }
+
+    public final ActivePool getActivePool() {
+        return this.activePool;
+    }
+
+    public final SpellPoolPruner getPruner() {
+        return this.pruner;
+    }
+
+    /**
+     * @return the state of the pruner to checkpoint, or null without a pruner
+     */
+    public final SpellPoolPruner.State getPruningState() {
+        final SpellPoolPruner pruner = this.pruner;
+        return pruner != null ? pruner.getState(this.activePool) : null;
+    }
+
+    /**
+     * Retires cards the population has no use for from the cards mutation picks from, or keeps every card active if
+     * the pruner is null.
+     */
+    public final void setPruner(final SpellPoolPruner pruner) {
+        this.pruner = pruner;
+    }
+
+    public final CardPoolIndex getCardPoolIndex() {
+        return this.cardPoolIndex;
+    }
+
     public final LandGenerator getLandGenerator() {
         return this.landGenerator;
     }
 
+    public final FitnessCache getFitnessCache() {
+        return this.fitnessCache;
+    }
+
+    public final Surrogate getSurrogate() {
+        return this.surrogate;
+    }
+
+    /**
+     * Screens decks with a surrogate model before dueling them, or duels every deck if the surrogate is null.
+     */
+    public final void setSurrogate(final Surrogate surrogate) {
+        this.surrogate = surrogate;
+    }
+
+    private final Stream<EvolutionResult<IntegerGene, Integer>>
+    steadyStream(final ISeq<Phenotype<IntegerGene, Integer>> population, final long generation, final int level, final long generations) {
+        final Predicate<? super EvolutionResult<IntegerGene, Integer>> limit = level == this.engines.size() - 1
+            ? Limits.bySteadyFitness(10)
+            : Limits.<Integer>byFitnessThreshold(15).and(Limits.byFixedGeneration(generations));
+        return this.steadyState.stream(population, generation, this.fitness(level), this.gtf, limit).peek(this.saveDecks(level));
+    }
+
+    private final Stream<EvolutionResult<IntegerGene, Integer>>
+    budgetStream(final ISeq<Phenotype<IntegerGene, Integer>> population, final long generation, final int level, final long generations) {
+        final EvolutionStream<IntegerGene, Integer> stream = this.gameBudget.stream(this.engines.get(level), population, generation, level, this.fitness(level), this.gtf, this.playGames(level));
+        if (level == this.engines.size() - 1)
+            return stream.limit(Limits.bySteadyFitness(10)).peek(this.saveDecks(level));
+        else
+            return stream.limit(Limits.byFitnessThreshold(15)).limit(generations).peek(this.saveDecks(level));
+    }
+
     private final Function<Genotype<IntegerGene>, Integer> fitness(final int level) {
         return gt -> {
-            MagicDeck deck = MagicDeckCreator.getMagicDeck(this.spellPool, gt, this.landGenerator);
-            String deckPath = DeckUtils.getDecksFolder().toString() + "/" + counter.getNext() + ".dec";
-            DeckUtils.saveDeck(deckPath, deck);
-            return Arrays.stream(benchmarkDecks.get(level)).parallel().map(opp -> MagicDuelHandler.getDuelScore(deckPath, opp)).reduce(Integer::sum).orElse(0);
+            // The games played so far outrank the fitness cache, which only holds a deck's first score
+            final GameBudget gameBudget = this.gameBudget;
+            final Integer score = gameBudget == null ? null : gameBudget.getScore(level, gt);
+            if (score != null)
+                return score;
+            final Set<Genotype<IntegerGene>> provisional = this.getProvisional(level);
+            final Surrogate surrogate = this.surrogate;
+            final Function<Genotype<IntegerGene>, Integer> evaluate = surrogate == null
+                ? this.duel(level)
+                : surrogate.screen(level, this.benchmarkDecks.get(level).length * MagicDuelHandler.NR_OF_GAMES, this.duel(level), provisional::add);
+            final int fitness;
+            try {
+                fitness = this.fitnessCache.get(gt, level, g -> {
+                    provisional.remove(g);
+                    return evaluate.apply(g);
+                });
+            } catch (CompletionException e) {
+                if (!isDuelFailure(e))
+                    throw e;
+                // The deck ranks last for now, but is evaluated again if it comes back
+                System.err.println("Evaluation failed at level " + level + ": " + e.getCause().getMessage());
+                provisional.add(gt);
+                return 0;
+            }
+            if (provisional.contains(gt))
+                // Evaluated again, by the improved model or against the current cut, if the deck comes back
+                this.fitnessCache.remove(gt, level);
+            return fitness;
+        };
+    }
+
+    /**
+     * @return whether a duel backend gave up on one of the duels of an evaluation
+     */
+    static final boolean isDuelFailure(final Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause())
+            if (cause instanceof DuelFailedException)
+                return true;
+        return false;
+    }
+
+    private final Set<Genotype<IntegerGene>> getProvisional(final int level) {
+        return this.provisional.computeIfAbsent(level, l -> ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * @return whether the fitness of a deck of the current population of a level is only a surrogate prediction, the
+     *     scaled partial score of a race or stands in for a failed evaluation, which are neither cached, archived nor
+     *     restored from a checkpoint
+     */
+    public final boolean isProvisional(final int level, final Genotype<IntegerGene> genotype) {
+        final Set<Genotype<IntegerGene>> provisional = this.provisional.get(level);
+        return provisional != null && provisional.contains(genotype);
+    }
+
+    private final Function<Genotype<IntegerGene>, Integer> duel(final int level) {
+        return gt -> {
+            final long startNanos = System.nanoTime();
+            final GameBudget gameBudget = this.gameBudget;
+            if (gameBudget != null) {
+                final int fitness = gameBudget.play(level, gt, this.playGames(level));
+                Metrics.getInstance().recordFitness(startNanos, level, fitness);
+                return fitness;
+            }
+            MagicDeck deck = MagicDeckCreator.getMagicDeck(this.cardPoolIndex, gt, this.landGenerator);
+            final MagicDeck[] opponents = this.benchmarkDecks.get(level);
+            final Race race = this.race;
+            final DuelShare share = this.share;
+            final Fidelity fidelity = this.getFidelity(level);
+            final int fitness = race == null
+                ? DuelScheduler.getInstance().evaluate(deck, opponents, share, fidelity)
+                : race.evaluate(level, gt, opponents.length, round -> DuelScheduler.getInstance().evaluate(deck, new MagicDeck[] { opponents[round] }, share, fidelity),
+                        MagicDuelHandler.NR_OF_GAMES, this.getProvisional(level)::add);
+            Metrics.getInstance().recordFitness(startNanos, level, fitness);
+            return fitness;
         };
     }
 
+    private final BiFunction<Genotype<IntegerGene>, Integer, DuelResult> playGames(final int level) {
+        return (gt, games) -> DuelScheduler.getInstance().duel(
+                MagicDeckCreator.getMagicDeck(this.cardPoolIndex, gt, this.landGenerator), this.benchmarkDecks.get(level), this.share, this.getFidelity(level), games);
+    }
+
     private final Consumer<EvolutionResult<IntegerGene, Integer>> saveDecks(int level) {
         return result -> {
             final ISeq<Phenotype<IntegerGene, Integer>> population = result.getPopulation();
             final long generation = result.getGeneration();
             System.out.println("End level " + level + " generation " + generation);
             System.out.println(result.getDurations().getEvolveDuration());
-            final String generationSaveDir = this.saveDir + "Level_" + level + "/Generation_" + generation + "/";
-            new File(generationSaveDir).mkdirs();
-            IntStream.range(0, population.size()).forEach(i -> {
-                final MagicDeck deck = MagicDeckCreator.getMagicDeck(this.spellPool, population.get(i).getGenotype(), this.landGenerator);
-                DeckUtils.saveDeck(generationSaveDir + "Deck_" + i + "_(" + population.get(i).getFitness() + ").dec", deck);
-            });
+            // Decks that left the population are evaluated from scratch if they come back
+            final Set<Genotype<IntegerGene>> provisional = this.getProvisional(level);
+            provisional.retainAll(population.stream().map(Phenotype::getGenotype).collect(Collectors.toSet()));
+            this.deckArchive.add(level, generation, population.stream()
+                    .filter(pt -> !provisional.contains(pt.getGenotype()))
+                    .collect(ISeq.toISeq()));
+            final Race race = this.race;
+            if (race != null)
+                race.update(level, population);
+            final SpellPoolPruner pruner = this.pruner;
+            if (pruner != null)
+                pruner.update(population, level, generation, this.activePool);
         };
     }
 
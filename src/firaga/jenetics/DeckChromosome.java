@@ -17,39 +17,60 @@
 
 package firaga.jenetics;
 
+import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import firaga.magic.MagicConstants;
-import io.jenetics.IntegerChromosome;
 import io.jenetics.IntegerGene;
+import io.jenetics.NumericChromosome;
 import io.jenetics.util.ISeq;
-import io.jenetics.util.IntRange;
+import io.jenetics.util.MSeq;
 import io.jenetics.util.RandomRegistry;
 
-public class DeckChromosome extends IntegerChromosome {
+/**
+ * Chromosome holding the number of copies of every card in the spell pool.
+ *
+ * Only the cards in the deck are stored, as a sorted array of entries that pack the card's spell pool index above a
+ * three bit copy count. A deck has at most {@link MagicConstants#MAX_SPELLS} distinct cards however large the pool,
+ * so {@link DeckCrossover}, {@link DeckGaussianMutator} and {@link DeckSwapMutator} work on the entries directly.
+ * Genes are only handed out on request, and since a count is between 0 and {@link MagicConstants#MAX_COPIES} they are
+ * shared instances rather than new objects.
+ *
+ * Cards added to a deck, by {@link #newInstance()}, deck size validation or the mutators, are picked from the
+ * chromosome's {@link ActivePool} when it has one and from the whole spell pool otherwise.
+ */
+public class DeckChromosome implements NumericChromosome<Integer, IntegerGene>, Serializable {
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 3L;
 
-    private static final IntegerGene GENE_PROTOTYPE = IntegerGene.of(0, MagicConstants.MAX_COPIES);
+    private static final int COUNT_BITS = 3;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+
+    private static final IntegerGene[] GENES = new IntegerGene[MagicConstants.MAX_COPIES + 1];
+    static {
+        for (int i = 0; i < GENES.length; i++)
+            GENES[i] = IntegerGene.of(i, 0, MagicConstants.MAX_COPIES);
+    }
 
-    protected final ISeq<IntegerGene> empty;
+    protected final int[] entries;
     protected final int spellPoolSize;
+    protected final transient ActivePool activePool;
 
     public DeckChromosome(final int spellPoolSize) {
-        super(0, MagicConstants.MAX_COPIES, spellPoolSize);
-        empty = ISeq.of(Collections.nCopies(spellPoolSize, GENE_PROTOTYPE.newInstance(0)));
-        this.spellPoolSize = spellPoolSize;
+        this(new int[0], spellPoolSize, null);
+    }
+
+    public DeckChromosome(final ActivePool activePool) {
+        this(new int[0], activePool.getSpellPoolSize(), activePool);
     }
 
-    private DeckChromosome(final ISeq<IntegerGene> genes, final int spellPoolSize) {
-        super(genes, IntRange.of(spellPoolSize));
-        empty = ISeq.of(Collections.nCopies(spellPoolSize, GENE_PROTOTYPE.newInstance(0)));
+    private DeckChromosome(final int[] entries, final int spellPoolSize, final ActivePool activePool) {
+        this.entries = entries;
         this.spellPoolSize = spellPoolSize;
+        this.activePool = activePool;
     }
 
     @Override
@@ -58,87 +79,275 @@ public class DeckChromosome extends IntegerChromosome {
     }
 
     @Override
-    public final IntegerChromosome newInstance(ISeq<IntegerGene> genes) {
-        return new DeckChromosome(validateDeckSize(genes), this.spellPoolSize);
+    public final IntegerGene getGene(final int index) {
+        return GENES[this.getCount(index)];
+    }
+
+    @Override
+    public final int intValue(final int index) {
+        return this.getCount(index);
+    }
+
+    public final int getCount(final int index) {
+        if (index < 0 || index >= this.spellPoolSize) throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for length " + this.spellPoolSize);
+        final int position = find(this.entries, this.entries.length, index);
+        return position >= 0 ? countOf(this.entries[position]) : 0;
+    }
+
+    /**
+     * @return the number of distinct cards in the deck
+     */
+    public final int getCardCount() {
+        return this.entries.length;
+    }
+
+    /**
+     * @return the spell pool index of the i-th distinct card of the deck, in increasing order
+     */
+    public final int getCardIndex(final int i) {
+        return indexOf(this.entries[i]);
+    }
+
+    /**
+     * @return the number of copies of the i-th distinct card of the deck
+     */
+    public final int getCardCopies(final int i) {
+        return countOf(this.entries[i]);
+    }
+
+    public final int getSpellCount() {
+        return spellCount(this.entries, this.entries.length);
+    }
+
+    public final int[] getEntries() {
+        return this.entries.clone();
+    }
+
+    /**
+     * @return a random spell pool index to add to a deck
+     */
+    public final int pickCard(final Random random) {
+        return pick(random, this.spellPoolSize, this.activePool);
+    }
+
+    public final int[] toArray() {
+        final int[] counts = new int[this.spellPoolSize];
+        for (final int entry : this.entries)
+            counts[indexOf(entry)] = countOf(entry);
+        return counts;
+    }
+
+    @Override
+    public final ISeq<IntegerGene> toSeq() {
+        final MSeq<IntegerGene> genes = MSeq.<IntegerGene>ofLength(this.spellPoolSize).fill(() -> GENES[0]);
+        for (final int entry : this.entries)
+            genes.set(indexOf(entry), GENES[countOf(entry)]);
+        return genes.toISeq();
+    }
+
+    @Override
+    public final Iterator<IntegerGene> iterator() {
+        return new Iterator<IntegerGene>() {
+            private int index = 0;
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < DeckChromosome.this.spellPoolSize;
+            }
+
+            @Override
+            public IntegerGene next() {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+                final int[] entries = DeckChromosome.this.entries;
+                if (this.position < entries.length && indexOf(entries[this.position]) == this.index++)
+                    return GENES[countOf(entries[this.position++])];
+                return GENES[0];
+            }
+        };
+    }
+
+    @Override
+    public final boolean isValid() {
+        for (int i = 0; i < this.entries.length; i++) {
+            if (indexOf(this.entries[i]) >= this.spellPoolSize || countOf(this.entries[i]) > MagicConstants.MAX_COPIES)
+                return false;
+            if (i > 0 && indexOf(this.entries[i - 1]) >= indexOf(this.entries[i]))
+                return false;
+        }
+        return true;
     }
 
     @Override
-    public IntegerChromosome newInstance() {
-        ISeq<IntegerGene> genes = addCards(this.empty, getRandomSpellCount());
-        return new DeckChromosome(genes, genes.size());
+    public final DeckChromosome newInstance(final ISeq<IntegerGene> genes) {
+        int size = 0;
+        for (int i = 0; i < genes.size(); i++)
+            if (genes.get(i).intValue() > 0)
+                size++;
+        final int[] newEntries = new int[size];
+        for (int i = 0, j = 0; i < genes.size(); i++) {
+            final int count = Math.min(genes.get(i).intValue(), MagicConstants.MAX_COPIES);
+            if (count > 0)
+                newEntries[j++] = entry(i, count);
+        }
+        final ActivePool activePool = genes.size() == this.spellPoolSize ? this.activePool : null;
+        return new DeckChromosome(validateDeckSize(newEntries, genes.size(), activePool), genes.size(), activePool);
+    }
+
+    @Override
+    public DeckChromosome newInstance() {
+        return new DeckChromosome(addCards(new int[0], this.spellPoolSize, this.activePool, getRandomSpellCount()), this.spellPoolSize, this.activePool);
+    }
+
+    /**
+     * Creates a chromosome over the same spell pool from entries built with {@link #entry(int, int)}, which must be
+     * sorted by spell pool index. Entries with no copies are dropped and the deck size is validated.
+     */
+    final DeckChromosome newInstance(final int[] newEntries, final int size) {
+        int j = 0;
+        for (int i = 0; i < size; i++)
+            if (countOf(newEntries[i]) > 0)
+                newEntries[j++] = newEntries[i];
+        return new DeckChromosome(validateDeckSize(Arrays.copyOf(newEntries, j), this.spellPoolSize, this.activePool), this.spellPoolSize, this.activePool);
     }
 
     public static final DeckChromosome of(final int spellPoolSize) {
         return new DeckChromosome(spellPoolSize);
     }
 
-    private static final ISeq<IntegerGene> validateDeckSize(final ISeq<IntegerGene> genes) {
-        final int spellCount = genes.stream().mapToInt(g -> g.intValue()).sum();
+    public static final DeckChromosome of(final ActivePool activePool) {
+        return new DeckChromosome(activePool);
+    }
+
+    @Override
+    public final int hashCode() {
+        return 31 * Arrays.hashCode(this.entries) + this.spellPoolSize;
+    }
+
+    @Override
+    public final boolean equals(final Object obj) {
+        if (!(obj instanceof DeckChromosome))
+            return false;
+        final DeckChromosome other = (DeckChromosome) obj;
+        return this.spellPoolSize == other.spellPoolSize && Arrays.equals(this.entries, other.entries);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("[");
+        for (final int entry : this.entries) {
+            if (builder.length() > 1)
+                builder.append(", ");
+            builder.append(indexOf(entry)).append('x').append(countOf(entry));
+        }
+        return builder.append(']').toString();
+    }
+
+    static final int entry(final int index, final int count) {
+        return (index << COUNT_BITS) | count;
+    }
+
+    static final int indexOf(final int entry) {
+        return entry >>> COUNT_BITS;
+    }
+
+    static final int countOf(final int entry) {
+        return entry & COUNT_MASK;
+    }
+
+    /**
+     * @return the position of the card in the first {@code size} entries, or {@code -(insertion point) - 1}
+     */
+    static final int find(final int[] entries, final int size, final int index) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midIndex = indexOf(entries[mid]);
+            if (midIndex < index)
+                low = mid + 1;
+            else if (midIndex > index)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    private static final int[] validateDeckSize(final int[] entries, final int spellPoolSize, final ActivePool activePool) {
+        final int spellCount = spellCount(entries, entries.length);
         if (spellCount < MagicConstants.MIN_SPELLS) {
-            return addCards(genes, MagicConstants.MIN_SPELLS);
+            return addCards(entries, spellPoolSize, activePool, MagicConstants.MIN_SPELLS);
         }
         else if (spellCount > MagicConstants.MAX_SPELLS) {
-            return removeCards(genes, MagicConstants.MAX_SPELLS);
+            return removeCards(entries, MagicConstants.MAX_SPELLS);
         }
         else {
-            return genes;
+            return entries;
         }
     }
 
-    private static final ISeq<IntegerGene> addCards(final ISeq<IntegerGene> genes, final int targetSpellCount) {
-        final int[] newGenes = genes.stream().mapToInt(g -> g.intValue()).toArray();
-        int spellCount = Arrays.stream(newGenes).sum();
+    private static final int[] addCards(final int[] entries, final int spellPoolSize, final ActivePool activePool, final int targetSpellCount) {
+        int[] newEntries = Arrays.copyOf(entries, entries.length + MagicConstants.MAX_SPELLS);
+        int size = entries.length;
+        int spellCount = spellCount(entries, size);
 
-        final int spellPoolSize = genes.size();
         final Random random = RandomRegistry.getRandom();
 
-        List<Integer> availableCards = IntStream.range(0, spellPoolSize)
-            .filter(n -> newGenes[n] == 0)
-            .boxed()
-            .collect(Collectors.toList());
-
-        while (spellCount < targetSpellCount) {
-            final int selectedIndex = random.nextInt(availableCards.size());
-            final int selected = availableCards.get(selectedIndex);
+        // A deck uses only a few dozen distinct cards, so picking random cards until an unused one turns up
+        // is much cheaper than listing every unused card of the pool
+        while (spellCount < targetSpellCount && size < spellPoolSize) {
+            final int selected = pick(random, spellPoolSize, activePool);
+            final int position = find(newEntries, size, selected);
+            if (position >= 0)
+                continue;
             final int amount = MagicConstants.MAX_COPIES - random.nextInt(2);
             if (spellCount + amount > MagicConstants.MAX_SPELLS)
                 break;
-            newGenes[selected] += amount;
-            availableCards.remove(selectedIndex);
+            final int insertion = -position - 1;
+            System.arraycopy(newEntries, insertion, newEntries, insertion + 1, size - insertion);
+            newEntries[insertion] = entry(selected, amount);
+            size++;
             spellCount += amount;
         }
 
-        return Arrays.stream(newGenes).boxed().map(GENE_PROTOTYPE::newInstance).collect(ISeq.toISeq());
+        return Arrays.copyOf(newEntries, size);
     }
 
-    private static final ISeq<IntegerGene> removeCards(final ISeq<IntegerGene> genes, final int targetSpellCount) {
-        final int[] newGenes = genes.stream().mapToInt(g -> g.intValue()).toArray();
-        int spellCount = Arrays.stream(newGenes).sum();
+    private static final int[] removeCards(final int[] entries, final int targetSpellCount) {
+        final int[] newEntries = entries.clone();
+        int size = newEntries.length;
+        int spellCount = spellCount(newEntries, size);
 
-        final int spellPoolSize = genes.size();
         final Random random = RandomRegistry.getRandom();
 
-        List<Integer> availableCards = IntStream.range(0, spellPoolSize)
-            .filter(n -> newGenes[n] > 0)
-            .boxed()
-            .collect(Collectors.toList());
-
-        while (spellCount > targetSpellCount) {
-            final int selectedIndex = random.nextInt(availableCards.size());
-            final int selected = availableCards.get(selectedIndex);
-            final int amount = newGenes[selected];
+        while (spellCount > targetSpellCount && size > 0) {
+            final int selected = random.nextInt(size);
+            final int amount = countOf(newEntries[selected]);
             if (spellCount - amount < MagicConstants.MIN_SPELLS)
                 break;
-            newGenes[selected] -= amount;
-            availableCards.remove(selectedIndex);
+            System.arraycopy(newEntries, selected + 1, newEntries, selected, size - selected - 1);
+            size--;
             spellCount -= amount;
         }
 
-        return Arrays.stream(newGenes).boxed().map(GENE_PROTOTYPE::newInstance).collect(ISeq.toISeq());
+        return Arrays.copyOf(newEntries, size);
+    }
+
+    private static int pick(final Random random, final int spellPoolSize, final ActivePool activePool) {
+        return activePool == null ? random.nextInt(spellPoolSize) : activePool.pick(random);
     }
 
     private static int getRandomSpellCount() {
         return MagicConstants.MIN_SPELLS + RandomRegistry.getRandom().nextInt(MagicConstants.MAX_SPELLS - MagicConstants.MIN_SPELLS + 1);
     }
 
+    private static int spellCount(final int[] entries, final int size) {
+        int spellCount = 0;
+        for (int i = 0; i < size; i++)
+            spellCount += countOf(entries[i]);
+        return spellCount;
+    }
+
 }
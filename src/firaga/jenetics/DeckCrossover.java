@@ -0,0 +1,101 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import static firaga.jenetics.DeckChromosome.entry;
+import static firaga.jenetics.DeckChromosome.indexOf;
+
+import java.util.Random;
+
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.Recombinator;
+import io.jenetics.util.MSeq;
+import io.jenetics.util.RandomRegistry;
+
+/**
+ * Uniform crossover of two {@link DeckChromosome}s.
+ *
+ * Only the cards present in either parent can change, so the parents' entries are merged instead of walking every
+ * card of the spell pool. The outcome has the same distribution as a {@link io.jenetics.UniformCrossover}.
+ */
+public class DeckCrossover<C extends Comparable<? super C>> extends Recombinator<IntegerGene, C> {
+
+    private final double swapProbability;
+
+    public DeckCrossover(final double crossoverProbability, final double swapProbability) {
+        super(crossoverProbability, 2);
+        this.swapProbability = swapProbability;
+    }
+
+    public DeckCrossover(final double crossoverProbability) {
+        this(crossoverProbability, 0.5);
+    }
+
+    @Override
+    protected int recombine(final MSeq<Phenotype<IntegerGene, C>> population, final int[] individuals, final long generation) {
+        final Phenotype<IntegerGene, C> pt1 = population.get(individuals[0]);
+        final Phenotype<IntegerGene, C> pt2 = population.get(individuals[1]);
+        final DeckChromosome deck1 = pt1.getGenotype().getChromosome().as(DeckChromosome.class);
+        final DeckChromosome deck2 = pt2.getGenotype().getChromosome().as(DeckChromosome.class);
+        final int[] entries1 = deck1.entries;
+        final int[] entries2 = deck2.entries;
+
+        final int[] child1 = new int[entries1.length + entries2.length];
+        final int[] child2 = new int[entries1.length + entries2.length];
+        final Random random = RandomRegistry.getRandom();
+
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < entries1.length || j < entries2.length) {
+            final int index1 = i < entries1.length ? indexOf(entries1[i]) : Integer.MAX_VALUE;
+            final int index2 = j < entries2.length ? indexOf(entries2[j]) : Integer.MAX_VALUE;
+            int entry1;
+            int entry2;
+            if (index1 < index2) {
+                entry1 = entries1[i++];
+                entry2 = entry(index1, 0);
+            }
+            else if (index1 > index2) {
+                entry1 = entry(index2, 0);
+                entry2 = entries2[j++];
+            }
+            else {
+                entry1 = entries1[i++];
+                entry2 = entries2[j++];
+            }
+
+            if (random.nextDouble() < this.swapProbability) {
+                final int swap = entry1;
+                entry1 = entry2;
+                entry2 = swap;
+            }
+            child1[size] = entry1;
+            child2[size] = entry2;
+            size++;
+        }
+
+        population.set(individuals[0], pt1.newInstance(Genotype.of(deck1.newInstance(child1, size)), generation));
+        population.set(individuals[1], pt2.newInstance(Genotype.of(deck2.newInstance(child2, size)), generation));
+
+        return this.getOrder();
+    }
+
+}
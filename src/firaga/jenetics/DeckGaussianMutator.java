@@ -0,0 +1,91 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import static firaga.jenetics.DeckChromosome.countOf;
+import static firaga.jenetics.DeckChromosome.entry;
+import static firaga.jenetics.DeckChromosome.find;
+import static firaga.jenetics.DeckChromosome.indexOf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import firaga.magic.MagicConstants;
+import io.jenetics.Chromosome;
+import io.jenetics.IntegerGene;
+import io.jenetics.Mutator;
+import io.jenetics.MutatorResult;
+
+/**
+ * Gaussian mutation of the copy counts of a {@link DeckChromosome}.
+ *
+ * Each card of the deck has its count changed with the mutation probability, possibly dropping it from the deck.
+ * For each card of the deck an unused card from {@link DeckChromosome#pickCard} is also added with the same
+ * probability, so the work depends on the size of the deck rather than the size of the spell pool.
+ */
+public class DeckGaussianMutator<C extends Comparable<? super C>> extends Mutator<IntegerGene, C> {
+
+    private static final double STANDARD_DEVIATION = MagicConstants.MAX_COPIES * 0.25;
+
+    public DeckGaussianMutator(final double probability) {
+        super(probability);
+    }
+
+    @Override
+    protected MutatorResult<Chromosome<IntegerGene>> mutate(final Chromosome<IntegerGene> chromosome, final double p, final Random random) {
+        final DeckChromosome deck = chromosome.as(DeckChromosome.class);
+        final int size = deck.entries.length;
+        final int[] entries = Arrays.copyOf(deck.entries, 2 * size);
+        int newSize = size;
+        int mutations = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (random.nextDouble() < p) {
+                final int count = (int) Math.round(countOf(entries[i]) + random.nextGaussian() * STANDARD_DEVIATION);
+                entries[i] = entry(indexOf(entries[i]), clamp(count));
+                mutations++;
+            }
+            if (random.nextDouble() < p) {
+                final int index = deck.pickCard(random);
+                if (find(deck.entries, size, index) < 0 && !contains(entries, size, newSize, index)) {
+                    final int count = (int) Math.round(Math.abs(random.nextGaussian() * STANDARD_DEVIATION));
+                    entries[newSize++] = entry(index, Math.max(clamp(count), 1));
+                    mutations++;
+                }
+            }
+        }
+
+        if (mutations == 0)
+            return MutatorResult.of(chromosome);
+
+        Arrays.sort(entries, 0, newSize);
+        return MutatorResult.of(deck.newInstance(entries, newSize), mutations);
+    }
+
+    private static int clamp(final int count) {
+        return Math.min(Math.max(count, 0), MagicConstants.MAX_COPIES);
+    }
+
+    private static boolean contains(final int[] entries, final int from, final int to, final int index) {
+        for (int i = from; i < to; i++)
+            if (indexOf(entries[i]) == index)
+                return true;
+        return false;
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import static firaga.jenetics.DeckChromosome.countOf;
+import static firaga.jenetics.DeckChromosome.entry;
+import static firaga.jenetics.DeckChromosome.indexOf;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import io.jenetics.Chromosome;
+import io.jenetics.IntegerGene;
+import io.jenetics.Mutator;
+import io.jenetics.MutatorResult;
+
+/**
+ * Swap mutation of a {@link DeckChromosome}.
+ *
+ * Each card of the deck swaps its count, with the mutation probability, with a card from
+ * {@link DeckChromosome#pickCard}. That card is usually not in the deck, in which case the card is replaced by it.
+ * Cards outside the deck are never visited, since swapping two unused cards changes nothing.
+ */
+public class DeckSwapMutator<C extends Comparable<? super C>> extends Mutator<IntegerGene, C> {
+
+    public DeckSwapMutator(final double probability) {
+        super(probability);
+    }
+
+    @Override
+    protected MutatorResult<Chromosome<IntegerGene>> mutate(final Chromosome<IntegerGene> chromosome, final double p, final Random random) {
+        final DeckChromosome deck = chromosome.as(DeckChromosome.class);
+        final int size = deck.entries.length;
+        final int[] entries = deck.entries.clone();
+        int mutations = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (random.nextDouble() < p) {
+                final int index = deck.pickCard(random);
+                final int other = position(entries, size, index);
+                if (other >= 0) {
+                    final int count = countOf(entries[i]);
+                    entries[i] = entry(indexOf(entries[i]), countOf(entries[other]));
+                    entries[other] = entry(index, count);
+                }
+                else {
+                    entries[i] = entry(index, countOf(entries[i]));
+                }
+                mutations++;
+            }
+        }
+
+        if (mutations == 0)
+            return MutatorResult.of(chromosome);
+
+        Arrays.sort(entries);
+        return MutatorResult.of(deck.newInstance(entries, size), mutations);
+    }
+
+    private static int position(final int[] entries, final int size, final int index) {
+        for (int i = 0; i < size; i++)
+            if (indexOf(entries[i]) == index)
+                return i;
+        return -1;
+    }
+
+}
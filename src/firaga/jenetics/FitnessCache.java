@@ -0,0 +1,152 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+
+/**
+ * A bounded, least-recently-used cache of fitness values keyed by the cards of a deck and the level it was
+ * evaluated at.
+ *
+ * Concurrent requests for the same deck share one in-flight evaluation.
+ */
+public final class FitnessCache {
+
+    private final Map<Key, CompletableFuture<Integer>> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public FitnessCache(final int capacity) {
+        this.entries = new LinkedHashMap<Key, CompletableFuture<Integer>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CompletableFuture<Integer>> eldest) {
+                return this.size() > capacity;
+            }
+        };
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    public final Integer get(final Genotype<IntegerGene> genotype, final int level, final Function<Genotype<IntegerGene>, Integer> fitness) {
+        final Key key = new Key(genotype.getChromosome().as(DeckChromosome.class).getEntries(), level);
+        final CompletableFuture<Integer> future;
+        final boolean owner;
+        synchronized (this.entries) {
+            final CompletableFuture<Integer> cached = this.entries.get(key);
+            if (cached != null) {
+                future = cached;
+                owner = false;
+            }
+            else {
+                future = new CompletableFuture<>();
+                this.entries.put(key, future);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            this.misses.incrementAndGet();
+            try {
+                future.complete(fitness.apply(genotype));
+            } catch (RuntimeException | Error e) {
+                // Waiters must not hang on a future nobody will complete, even after an OutOfMemoryError
+                synchronized (this.entries) {
+                    this.entries.remove(key, future);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        else {
+            this.hits.incrementAndGet();
+        }
+        return future.join();
+    }
+
+    /**
+     * Records a fitness value that is already known, such as one restored from a {@link Checkpoint}.
+     */
+    public final void put(final Genotype<IntegerGene> genotype, final int level, final int fitness) {
+        final Key key = new Key(genotype.getChromosome().as(DeckChromosome.class).getEntries(), level);
+        synchronized (this.entries) {
+            this.entries.put(key, CompletableFuture.completedFuture(fitness));
+        }
+    }
+
+    /**
+     * Forgets a fitness value that is only provisional, once the concurrent requests for it have it, so that the deck
+     * is evaluated again when it is requested next.
+     */
+    public final void remove(final Genotype<IntegerGene> genotype, final int level) {
+        final Key key = new Key(genotype.getChromosome().as(DeckChromosome.class).getEntries(), level);
+        synchronized (this.entries) {
+            this.entries.remove(key);
+        }
+    }
+
+    public final long getHits() {
+        return this.hits.get();
+    }
+
+    public final long getMisses() {
+        return this.misses.get();
+    }
+
+    @Override
+    public final String toString() {
+        return "Fitness cache: " + this.getHits() + " hits, " + this.getMisses() + " misses";
+    }
+
+    private static final class Key {
+
+        private final int[] entries;
+        private final int level;
+        private final int hash;
+
+        private Key(final int[] entries, final int level) {
+            this.entries = entries;
+            this.level = level;
+            this.hash = 31 * Arrays.hashCode(entries) + level;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return this.level == other.level && Arrays.equals(this.entries, other.entries);
+        }
+
+    }
+
+}
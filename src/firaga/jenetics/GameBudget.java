@@ -0,0 +1,366 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import firaga.magic.MagicDuelHandler;
+import firaga.magic.duel.DuelResult;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Optimize;
+import io.jenetics.Phenotype;
+import io.jenetics.engine.Engine;
+import io.jenetics.engine.EvolutionResult;
+import io.jenetics.engine.EvolutionStart;
+import io.jenetics.engine.EvolutionStream;
+import io.jenetics.util.Factory;
+import io.jenetics.util.ISeq;
+
+/**
+ * Spreads the games of a generation over the population where they sharpen its ranking most, instead of playing a
+ * full duel once per deck and keeping that score forever.
+ *
+ * A new deck plays a few games against each opponent. After every generation, the games this saved are played again:
+ * first to complete the full duel of the best decks, so a lucky start cannot keep them on top, and then by the decks
+ * closest to the survival cut, following the optimal computing budget allocation for selecting the best subset: each
+ * deck gets a share of the games proportional to the variance of its win rate over its squared distance from the
+ * cut. A deck's fitness is its win rate over all the games it played, scaled to a full duel against every
+ * opponent, and the phenotypes of decks that played again are replaced so that selection sees the new score.
+ */
+public final class GameBudget {
+
+    /**
+     * The number of best decks whose full duel is completed every generation.
+     */
+    private static final int ELITE = 5;
+
+    /**
+     * The largest number of full duels a deck plays, so that decks right at the cut cannot take every game.
+     */
+    private static final int MAX_FULL_DUELS = 4;
+
+    /**
+     * The smallest distance in win rate from the cut, so that a deck right at the cut does not take every game.
+     */
+    private static final double MIN_GAP = 0.5 / MagicDuelHandler.NR_OF_GAMES;
+
+    private final int initialGames;
+    private final Optimize optimize;
+    private final int populationSize;
+    private final int survivors;
+    private final Executor executor;
+    private final Map<Key, Tally> tallies;
+    private final AtomicLong newDecks;
+    private final AtomicLong unplayedDecks;
+    private final AtomicLong initialGamesPlayed;
+    private final AtomicLong extraGamesPlayed;
+    private final AtomicLong rechecks;
+    private long unspentGames;
+
+    /**
+     * @param initialGames the number of games a new deck plays against each opponent
+     */
+    public GameBudget(final Engine.Builder<IntegerGene, Integer> builder, final int initialGames) {
+        this.initialGames = initialGames;
+        this.optimize = builder.getOptimize();
+        this.populationSize = builder.getPopulationSize();
+        this.survivors = this.populationSize - (int) Math.rint(this.populationSize * builder.getOffspringFraction());
+        this.executor = builder.getExecutor();
+        this.tallies = new LinkedHashMap<Key, Tally>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Tally> eldest) {
+                return this.size() > 4096;
+            }
+        };
+        this.newDecks = new AtomicLong(0);
+        this.unplayedDecks = new AtomicLong(0);
+        this.initialGamesPlayed = new AtomicLong(0);
+        this.extraGamesPlayed = new AtomicLong(0);
+        this.rechecks = new AtomicLong(0);
+        this.unspentGames = 0;
+    }
+
+    /**
+     * @return the fitness of a deck from all the games it played at the level, or null if it has not played yet
+     */
+    public final Integer getScore(final int level, final Genotype<IntegerGene> genotype) {
+        final Tally tally = this.getTally(new Key(genotype, level));
+        return tally == null ? null : tally.getScore();
+    }
+
+    /**
+     * Plays the initial games of a new deck.
+     *
+     * @param play plays the given number of games against each opponent
+     */
+    public final int play(final int level, final Genotype<IntegerGene> genotype, final BiFunction<Genotype<IntegerGene>, Integer, DuelResult> play) {
+        final DuelResult result = play.apply(genotype, this.initialGames);
+        this.newDecks.incrementAndGet();
+        this.unplayedDecks.incrementAndGet();
+        this.initialGamesPlayed.addAndGet(result.getGames());
+        return this.record(new Key(genotype, level), result).getScore();
+    }
+
+    /**
+     * Evolves a level with an engine whose fitness function plays new decks through {@link #play}, spending the games
+     * saved on the population after every generation.
+     *
+     * @param population the population to start from, or null to start from random genotypes
+     */
+    public final EvolutionStream<IntegerGene, Integer> stream(
+            final Engine<IntegerGene, Integer> engine,
+            final ISeq<Phenotype<IntegerGene, Integer>> population,
+            final long generation,
+            final int level,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final Factory<Genotype<IntegerGene>> genotypeFactory,
+            final BiFunction<Genotype<IntegerGene>, Integer, DuelResult> play) {
+        final ISeq<Phenotype<IntegerGene, Integer>> start = IntStream.range(0, this.populationSize)
+            .mapToObj(i -> population != null && i < population.size()
+                ? population.get(i).newInstance(population.get(i).getGeneration(), fitness)
+                : Phenotype.of(genotypeFactory.newInstance(), generation, fitness))
+            .collect(ISeq.toISeq());
+        return EvolutionStream.of(() -> EvolutionStart.of(start, generation),
+                evolutionStart -> this.allocate(level, engine.evolve(evolutionStart), fitness, play));
+    }
+
+    @Override
+    public final String toString() {
+        return "Game budget: " + this.newDecks.get() + " new decks played " + this.initialGamesPlayed.get() + " games, "
+            + this.extraGamesPlayed.get() + " games played again, " + this.rechecks.get() + " elite re-checks";
+    }
+
+    private EvolutionResult<IntegerGene, Integer> allocate(
+            final int level,
+            final EvolutionResult<IntegerGene, Integer> result,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final BiFunction<Genotype<IntegerGene>, Integer, DuelResult> play) {
+        // Each new deck left out games against every opponent, counted here in games against each opponent. Games
+        // that found no deck to play, such as when the population is made of a few copies, are kept for later.
+        final long gamesPerDeck = MagicDuelHandler.NR_OF_GAMES - this.initialGames;
+        final long budget = this.unplayedDecks.getAndSet(0) * gamesPerDeck + this.unspentGames;
+        final int[] plannedGames = this.plan(level, result.getPopulation(), budget);
+        this.unspentGames = Math.min(budget - Arrays.stream(plannedGames).sum(), this.populationSize * gamesPerDeck);
+
+        final Map<Key, CompletableFuture<DuelResult>> duels = new LinkedHashMap<>();
+        for (int i = 0; i < plannedGames.length; i++) {
+            final Genotype<IntegerGene> genotype = result.getPopulation().get(i).getGenotype();
+            final int games = plannedGames[i];
+            if (games > 0)
+                duels.putIfAbsent(new Key(genotype, level), CompletableFuture.supplyAsync(() -> play.apply(genotype, games), this.executor));
+        }
+        if (duels.isEmpty())
+            return result;
+        duels.forEach((key, duel) -> {
+            final DuelResult duelResult;
+            try {
+                duelResult = duel.join();
+            } catch (CompletionException e) {
+                if (!DeckBuilderEngine.isDuelFailure(e))
+                    throw e;
+                // The deck keeps the score of the games it played before
+                System.err.println("Extra games failed: " + e.getCause().getMessage());
+                return;
+            }
+            this.extraGamesPlayed.addAndGet(duelResult.getGames());
+            this.record(key, duelResult);
+        });
+
+        final ISeq<Phenotype<IntegerGene, Integer>> population = result.getPopulation().stream()
+            .map(pt -> duels.containsKey(new Key(pt.getGenotype(), level)) ? pt.newInstance(pt.getGeneration(), fitness).evaluate() : pt)
+            .collect(ISeq.toISeq());
+        return EvolutionResult.of(this.optimize, population, result.getGeneration(), result.getDurations(),
+                result.getKillCount(), result.getInvalidCount(), result.getAlterCount());
+    }
+
+    /**
+     * @return the number of games against each opponent each phenotype of the population plays again
+     */
+    private int[] plan(final int level, final ISeq<Phenotype<IntegerGene, Integer>> population, final long budget) {
+        final int[] games = new int[population.size()];
+        final List<Integer> ranked = new ArrayList<>();
+        final Tally[] tallies = new Tally[population.size()];
+        final Set<Key> keys = new HashSet<>();
+        for (int i = 0; i < population.size(); i++) {
+            final Key key = new Key(population.get(i).getGenotype(), level);
+            // Copies of a deck already ranked and decks the surrogate did not duel have nothing to play
+            if (!keys.add(key))
+                continue;
+            tallies[i] = this.getTally(key);
+            if (tallies[i] != null)
+                ranked.add(i);
+        }
+        if (ranked.size() < 2 || budget <= 0)
+            return games;
+        ranked.sort(Comparator.comparingDouble((Integer i) -> tallies[i].getWinRate()).reversed());
+
+        final int survivors = Math.min(this.survivors, ranked.size() - 1);
+        final double cut = (tallies[ranked.get(survivors - 1)].getWinRate() + tallies[ranked.get(survivors)].getWinRate()) / 2;
+        final double[] played = new double[ranked.size()];
+        final double[] maxGames = new double[ranked.size()];
+        final double[] weights = new double[ranked.size()];
+        double totalPlayed = 0;
+        double totalWeight = 0;
+        for (int r = 0; r < ranked.size(); r++) {
+            final Tally tally = tallies[ranked.get(r)];
+            played[r] = (double) tally.getGames() / tally.getOpponents();
+            maxGames[r] = (double) MAX_FULL_DUELS * tally.getTotalGames() / tally.getOpponents();
+            final double gap = Math.max(Math.abs(tally.getWinRate() - cut), MIN_GAP);
+            weights[r] = tally.getVariance() / (gap * gap);
+            totalPlayed += played[r];
+            totalWeight += weights[r];
+        }
+
+        long remaining = budget;
+        for (int r = 0; r < Math.min(ELITE, ranked.size()) && remaining > 0; r++) {
+            final Tally tally = tallies[ranked.get(r)];
+            final long missing = Math.min((tally.getTotalGames() - tally.getGames()) / tally.getOpponents(), remaining);
+            if (missing > 0) {
+                games[ranked.get(r)] += missing;
+                played[r] += missing;
+                remaining -= missing;
+                this.rechecks.incrementAndGet();
+            }
+        }
+
+        // Give each game to the deck furthest below its share of all the games played so far and this generation
+        final double total = totalPlayed + budget;
+        for (; remaining > 0; remaining--) {
+            int best = -1;
+            double bestDeficit = 0;
+            for (int r = 0; r < ranked.size(); r++) {
+                final double deficit = total * weights[r] / totalWeight - played[r];
+                if (played[r] + 1 <= maxGames[r] && deficit > bestDeficit) {
+                    best = r;
+                    bestDeficit = deficit;
+                }
+            }
+            if (best < 0)
+                break;
+            games[ranked.get(best)]++;
+            played[best]++;
+        }
+        return games;
+    }
+
+    private Tally getTally(final Key key) {
+        synchronized (this.tallies) {
+            return this.tallies.get(key);
+        }
+    }
+
+    private Tally record(final Key key, final DuelResult result) {
+        synchronized (this.tallies) {
+            return this.tallies.merge(key, new Tally(result.getWins(), result.getGames(), result.getTotalGames()), Tally::plus);
+        }
+    }
+
+    private static final class Key {
+
+        private final int[] entries;
+        private final int level;
+        private final int hash;
+
+        private Key(final Genotype<IntegerGene> genotype, final int level) {
+            this.entries = genotype.getChromosome().as(DeckChromosome.class).getEntries();
+            this.level = level;
+            this.hash = 31 * Arrays.hashCode(this.entries) + level;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return this.level == other.level && Arrays.equals(this.entries, other.entries);
+        }
+
+    }
+
+    /**
+     * The wins and games of a deck against all opponents together.
+     */
+    private static final class Tally {
+
+        private final int wins;
+        private final int games;
+        private final int totalGames;
+
+        private Tally(final int wins, final int games, final int totalGames) {
+            this.wins = wins;
+            this.games = games;
+            this.totalGames = totalGames;
+        }
+
+        private Tally plus(final Tally other) {
+            return new Tally(this.wins + other.wins, this.games + other.games, this.totalGames);
+        }
+
+        private int getScore() {
+            return new DuelResult(this.wins, this.games, this.totalGames).getScore();
+        }
+
+        private double getWinRate() {
+            return this.games == 0 ? 0 : (double) this.wins / this.games;
+        }
+
+        /**
+         * @return the variance of a single game, smoothed so that a deck that won or lost every game still has some
+         */
+        private double getVariance() {
+            final double rate = (this.wins + 1.0) / (this.games + 2.0);
+            return rate * (1 - rate);
+        }
+
+        private int getGames() {
+            return this.games;
+        }
+
+        private int getTotalGames() {
+            return this.totalGames;
+        }
+
+        private int getOpponents() {
+            return this.totalGames / MagicDuelHandler.NR_OF_GAMES;
+        }
+
+    }
+
+}
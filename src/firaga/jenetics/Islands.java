@@ -0,0 +1,200 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.engine.Engine;
+import io.jenetics.engine.EvolutionResult;
+import io.jenetics.engine.EvolutionStart;
+import io.jenetics.util.ISeq;
+
+/**
+ * Island model: each island evolves its own share of the population with its own engine and at its own pace, and
+ * every few generations sends copies of its best genotypes to its neighbours, where they replace the worst
+ * individuals.
+ */
+public final class Islands {
+
+    public enum Topology {
+        /** Island i sends to island i + 1. */
+        RING,
+        /** Every island sends to every other island. */
+        COMPLETE
+    }
+
+    public static final int DEFAULT_MIGRATION_INTERVAL = 5;
+
+    private final int count;
+    private final Topology topology;
+    private final int migrationInterval;
+    private final int migrants;
+    private final AtomicLong migrations;
+
+    public Islands(final int count, final Topology topology, final int migrationInterval, final int migrants) {
+        this.count = count;
+        this.topology = topology;
+        this.migrationInterval = migrationInterval;
+        this.migrants = migrants;
+        this.migrations = new AtomicLong(0);
+    }
+
+    public final int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Splits the population over the islands and evolves each of them until its limit is reached.
+     *
+     * @param engines one engine per island, sized for its share of the population
+     * @param fitness the fitness function phenotypes moved between islands are re-created with
+     * @param limits creates the limit of an island, which stops it at the first result it does not accept
+     * @param consumer receives the result of every island generation, one at a time
+     * @return the last populations of all islands
+     */
+    public final ISeq<Phenotype<IntegerGene, Integer>> evolve(
+            final List<Engine<IntegerGene, Integer>> engines,
+            final ISeq<Phenotype<IntegerGene, Integer>> population,
+            final long generation,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final Supplier<Predicate<? super EvolutionResult<IntegerGene, Integer>>> limits,
+            final Consumer<EvolutionResult<IntegerGene, Integer>> consumer) {
+        final List<Queue<Genotype<IntegerGene>>> inboxes = IntStream.range(0, this.count)
+            .mapToObj(i -> new ConcurrentLinkedQueue<Genotype<IntegerGene>>())
+            .collect(Collectors.toList());
+        final Consumer<EvolutionResult<IntegerGene, Integer>> serialConsumer = result -> {
+            synchronized (consumer) {
+                consumer.accept(result);
+            }
+        };
+
+        final ExecutorService executor = Executors.newFixedThreadPool(this.count, runnable -> {
+            final Thread thread = new Thread(runnable, "Island");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<ISeq<Phenotype<IntegerGene, Integer>>>> islands = new ArrayList<>();
+            for (int island = 0; island < this.count; island++) {
+                final int i = island;
+                final ISeq<Phenotype<IntegerGene, Integer>> share = IntStream.range(0, population.size())
+                    .filter(p -> p % this.count == i)
+                    .mapToObj(population::get)
+                    .map(p -> Phenotype.of(p.getGenotype(), generation, fitness))
+                    .collect(ISeq.toISeq());
+                islands.add(executor.submit(() -> this.evolve(i, engines.get(i), share, generation, fitness, limits.get(), serialConsumer, inboxes)));
+            }
+
+            final List<Phenotype<IntegerGene, Integer>> merged = new ArrayList<>();
+            for (final Future<ISeq<Phenotype<IntegerGene, Integer>>> island : islands)
+                merged.addAll(island.get().asList());
+            return ISeq.of(merged);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public final String toString() {
+        return "Islands: " + this.count + " on a " + this.topology.name().toLowerCase() + ", " + this.migrants
+            + " migrants every " + this.migrationInterval + " generations, " + this.migrations.get() + " migrations";
+    }
+
+    private ISeq<Phenotype<IntegerGene, Integer>> evolve(
+            final int island,
+            final Engine<IntegerGene, Integer> engine,
+            final ISeq<Phenotype<IntegerGene, Integer>> share,
+            final long firstGeneration,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final Predicate<? super EvolutionResult<IntegerGene, Integer>> limit,
+            final Consumer<EvolutionResult<IntegerGene, Integer>> consumer,
+            final List<Queue<Genotype<IntegerGene>>> inboxes) {
+        ISeq<Phenotype<IntegerGene, Integer>> population = share;
+        long generation = firstGeneration;
+        while (true) {
+            final EvolutionResult<IntegerGene, Integer> result = engine.evolve(EvolutionStart.of(population, generation));
+            consumer.accept(result);
+            population = result.getPopulation();
+            generation = result.getGeneration() + 1;
+            if (!limit.test(result))
+                return population;
+
+            if ((generation - firstGeneration) % this.migrationInterval == 0)
+                this.emigrate(island, population, inboxes);
+            population = this.immigrate(population, generation, fitness, inboxes.get(island));
+        }
+    }
+
+    private void emigrate(final int island, final ISeq<Phenotype<IntegerGene, Integer>> population, final List<Queue<Genotype<IntegerGene>>> inboxes) {
+        final List<Genotype<IntegerGene>> best = population.stream()
+            .sorted(Comparator.comparing(Phenotype<IntegerGene, Integer>::getFitness).reversed())
+            .limit(this.migrants)
+            .map(Phenotype::getGenotype)
+            .collect(Collectors.toList());
+        for (int neighbour = 0; neighbour < this.count; neighbour++) {
+            if (neighbour != island && (this.topology == Topology.COMPLETE || neighbour == (island + 1) % this.count)) {
+                inboxes.get(neighbour).addAll(best);
+                this.migrations.incrementAndGet();
+            }
+        }
+    }
+
+    private ISeq<Phenotype<IntegerGene, Integer>> immigrate(
+            final ISeq<Phenotype<IntegerGene, Integer>> population,
+            final long generation,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final Queue<Genotype<IntegerGene>> inbox) {
+        if (inbox.isEmpty())
+            return population;
+
+        final List<Phenotype<IntegerGene, Integer>> individuals = population.stream()
+            .sorted(Comparator.comparing(Phenotype<IntegerGene, Integer>::getFitness))
+            .collect(Collectors.toList());
+        int worst = 0;
+        for (Genotype<IntegerGene> migrant = inbox.poll(); migrant != null && worst < individuals.size() - 1; migrant = inbox.poll()) {
+            final Genotype<IntegerGene> genotype = migrant;
+            if (individuals.stream().noneMatch(p -> p.getGenotype().equals(genotype)))
+                individuals.set(worst++, Phenotype.of(genotype, generation, fitness));
+        }
+        return ISeq.of(individuals);
+    }
+
+}
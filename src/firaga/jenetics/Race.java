@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+
+import io.jenetics.Chromosome;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.util.ISeq;
+
+/**
+ * Races candidates against the survival cut of the previous generation: a candidate plays its opponents one round at
+ * a time, in an order drawn from the seed of the race and the candidate, and stops as soon as a Hoeffding bound shows that even its optimistic final score would not
+ * reach the fitness of the last survivor.
+ *
+ * A stopped candidate's partial score is scaled to all rounds, so it still ranks below the survivors and in order
+ * among the other stopped candidates, but is only provisional: a stopped candidate is raced again if it is bred again.
+ */
+public final class Race {
+
+    private final int survivors;
+    private final double delta;
+    private final long seed;
+    private final Map<Integer, Integer> thresholds;
+    private final AtomicLong raced;
+    private final AtomicLong stopped;
+    private final AtomicLong roundsSaved;
+
+    /**
+     * @param survivors the number of best individuals of a generation that survive it
+     * @param delta the probability of wrongly stopping a candidate that would have reached the survival cut
+     * @param seed the seed of the order in which candidates play their opponents
+     */
+    public Race(final int survivors, final double delta, final long seed) {
+        this.survivors = survivors;
+        this.delta = delta;
+        this.seed = seed;
+        this.thresholds = new ConcurrentHashMap<>();
+        this.raced = new AtomicLong(0);
+        this.stopped = new AtomicLong(0);
+        this.roundsSaved = new AtomicLong(0);
+    }
+
+    /**
+     * Sets the survival cut of a level to the fitness of the last survivor of the population.
+     */
+    public final void update(final int level, final ISeq<Phenotype<IntegerGene, Integer>> population) {
+        if (population.size() >= this.survivors)
+            this.thresholds.put(level, population.stream()
+                    .map(Phenotype::getFitness)
+                    .sorted((f1, f2) -> Integer.compare(f2, f1))
+                    .skip(this.survivors - 1)
+                    .findFirst().get());
+    }
+
+    /**
+     * @param playRound plays the given round and returns its score
+     * @param maxRoundScore the highest score a single round can give
+     * @param stopped receives the candidate if it is stopped early
+     */
+    public final int evaluate(final int level, final Genotype<IntegerGene> genotype, final int rounds, final IntUnaryOperator playRound,
+            final int maxRoundScore, final Consumer<Genotype<IntegerGene>> stopped) {
+        final Integer threshold = this.thresholds.get(level);
+        if (threshold == null) {
+            int score = 0;
+            for (int round = 0; round < rounds; round++)
+                score += playRound.applyAsInt(round);
+            return score;
+        }
+
+        this.raced.incrementAndGet();
+        final int[] order = shuffledRounds(rounds, new SplittableRandom(this.seed ^ (31 * getAllelesHash(genotype) + level)));
+        int score = 0;
+        for (int played = 0; played < rounds; played++) {
+            if (played > 0 && this.getUpperBound(score, played, rounds, maxRoundScore) < threshold) {
+                this.stopped.incrementAndGet();
+                this.roundsSaved.addAndGet(rounds - played);
+                stopped.accept(genotype);
+                return (int) Math.round((double) score * rounds / played);
+            }
+            score += playRound.applyAsInt(order[played]);
+        }
+        return score;
+    }
+
+    @Override
+    public final String toString() {
+        return "Race: " + this.raced.get() + " candidates raced, " + this.stopped.get() + " stopped early, "
+            + this.roundsSaved.get() + " rounds saved, survival cuts " + this.thresholds;
+    }
+
+    private double getUpperBound(final int score, final int played, final int rounds, final int maxRoundScore) {
+        final double mean = (double) score / played;
+        final double margin = maxRoundScore * Math.sqrt(Math.log(1 / this.delta) / (2 * played));
+        return score + (rounds - played) * Math.min(mean + margin, maxRoundScore);
+    }
+
+    private static long getAllelesHash(final Genotype<IntegerGene> genotype) {
+        // Unlike the genotype's own hash code, which depends on the identity of its gene class, the same in every run
+        long hash = 0;
+        for (final Chromosome<IntegerGene> chromosome : genotype)
+            for (final IntegerGene gene : chromosome)
+                hash = 31 * hash + gene.getAllele();
+        return hash;
+    }
+
+    private static int[] shuffledRounds(final int rounds, final SplittableRandom random) {
+        final int[] order = new int[rounds];
+        for (int i = 0; i < rounds; i++) {
+            final int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        return order;
+    }
+
+}
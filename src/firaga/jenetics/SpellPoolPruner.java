@@ -0,0 +1,228 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import firaga.magic.MagicConstants;
+import io.jenetics.IntegerGene;
+import io.jenetics.Phenotype;
+import io.jenetics.util.ISeq;
+
+/**
+ * Retires cards of the spell pool that evolution has no use for, so mutation spends its picks on the cards that
+ * decent decks are made of.
+ *
+ * After every generation, a card that is in none of the elite decks for a number of generations in a row, or that
+ * lowers the mean fitness of the decks holding it for as long, is retired from the {@link ActivePool}. A retired card
+ * that makes it back into the elite, through a deck that still held it or through the exploration quota, is active
+ * again. At least {@link #MIN_ACTIVE_CARDS} cards always stay active.
+ *
+ * Generations are counted per level: islands that each report the same generation of a level count it once, and any
+ * of them can clear a card.
+ */
+public final class SpellPoolPruner {
+
+    public static final int MIN_ACTIVE_CARDS = 2 * MagicConstants.MAX_SPELLS;
+
+    /**
+     * The number of decks a card must be in for its contribution to the population to count.
+     */
+    private static final int MIN_SAMPLES = 3;
+
+    private final int elite;
+    private final int generations;
+    private final double exploration;
+    private int[] idle;
+    private int[] harmful;
+    private long[] harmfulGenerations;
+    private int level;
+    private long generation;
+    private long retirements;
+    private long revivals;
+
+    /**
+     * @param elite the number of best decks of a generation whose cards count as used
+     * @param generations the number of generations in a row a card must be unused or harmful to be retired
+     * @param exploration the fraction of the cards added to decks that is drawn from the retired cards
+     */
+    public SpellPoolPruner(final int elite, final int generations, final double exploration) {
+        this.elite = elite;
+        this.generations = generations;
+        this.exploration = exploration;
+        this.idle = new int[0];
+        this.harmful = new int[0];
+        this.harmfulGenerations = new long[0];
+        this.level = -1;
+        this.generation = 0;
+        this.retirements = 0;
+        this.revivals = 0;
+    }
+
+    /**
+     * Counts the generation of a population, unless another island already reported it, and retires or revives cards
+     * of the pool.
+     */
+    public final synchronized void update(final ISeq<Phenotype<IntegerGene, Integer>> population, final int level, final long generation, final ActivePool activePool) {
+        final int spellPoolSize = activePool.getSpellPoolSize();
+        if (spellPoolSize <= MIN_ACTIVE_CARDS || population.isEmpty())
+            return;
+        if (this.idle.length != spellPoolSize) {
+            this.idle = new int[spellPoolSize];
+            this.harmful = new int[spellPoolSize];
+            this.harmfulGenerations = new long[spellPoolSize];
+        }
+        if (level != this.level) {
+            // Generations start again at every level
+            this.level = level;
+            this.generation = 0;
+            Arrays.fill(this.harmfulGenerations, 0);
+        }
+        final boolean newGeneration = generation > this.generation;
+        if (newGeneration)
+            this.generation = generation;
+
+        final List<Phenotype<IntegerGene, Integer>> ranked = population.stream()
+            .sorted(Comparator.comparing(Phenotype<IntegerGene, Integer>::getFitness).reversed())
+            .collect(Collectors.toList());
+
+        final BitSet inElite = new BitSet(spellPoolSize);
+        final int[] holders = new int[spellPoolSize];
+        final long[] holderFitness = new long[spellPoolSize];
+        long totalFitness = 0;
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            final DeckChromosome deck = ranked.get(rank).getGenotype().getChromosome().as(DeckChromosome.class);
+            final int fitness = ranked.get(rank).getFitness();
+            for (int i = 0; i < deck.getCardCount(); i++) {
+                final int card = deck.getCardIndex(i);
+                if (rank < this.elite)
+                    inElite.set(card);
+                holders[card]++;
+                holderFitness[card] += fitness;
+            }
+            totalFitness += fitness;
+        }
+
+        final BitSet retired = activePool.getRetired();
+        for (int card = 0; card < spellPoolSize; card++) {
+            if (inElite.get(card)) {
+                this.idle[card] = 0;
+                if (retired.get(card)) {
+                    retired.clear(card);
+                    this.revivals++;
+                }
+            }
+            else if (newGeneration) {
+                this.idle[card]++;
+            }
+            final int others = ranked.size() - holders[card];
+            if (holders[card] >= MIN_SAMPLES && others > 0) {
+                final double withCard = (double) holderFitness[card] / holders[card];
+                final double withoutCard = (double) (totalFitness - holderFitness[card]) / others;
+                if (withCard >= withoutCard) {
+                    this.harmful[card] = 0;
+                }
+                else if (this.harmfulGenerations[card] < generation) {
+                    this.harmful[card]++;
+                    this.harmfulGenerations[card] = generation;
+                }
+            }
+        }
+
+        // Retire the longest unused cards first in case the pool is about to shrink below its minimum
+        final int[] candidates = IntStream.range(0, spellPoolSize)
+            .filter(card -> !retired.get(card) && !inElite.get(card))
+            .filter(card -> this.idle[card] >= this.generations || this.harmful[card] >= this.generations)
+            .boxed()
+            .sorted(Comparator.comparingInt((Integer card) -> this.idle[card]).reversed())
+            .mapToInt(Integer::intValue)
+            .toArray();
+        int active = spellPoolSize - retired.cardinality();
+        for (final int card : candidates) {
+            if (active <= MIN_ACTIVE_CARDS)
+                break;
+            retired.set(card);
+            this.harmful[card] = 0;
+            this.retirements++;
+            active--;
+        }
+
+        activePool.setRetired(retired, this.exploration);
+    }
+
+    /**
+     * @return the counters and the retired cards, to be restored with {@link #restore} when a run is resumed
+     */
+    public final synchronized State getState(final ActivePool activePool) {
+        return new State(this.idle.clone(), this.harmful.clone(), this.harmfulGenerations.clone(), this.level, this.generation,
+                this.retirements, this.revivals, activePool.getRetired());
+    }
+
+    public final synchronized void restore(final State state, final ActivePool activePool) {
+        this.idle = state.idle.clone();
+        this.harmful = state.harmful.clone();
+        this.harmfulGenerations = state.harmfulGenerations.clone();
+        this.level = state.level;
+        this.generation = state.generation;
+        this.retirements = state.retirements;
+        this.revivals = state.revivals;
+        activePool.setRetired(state.retired, this.exploration);
+    }
+
+    @Override
+    public final synchronized String toString() {
+        return "Spell pool pruning: " + this.retirements + " cards retired, " + this.revivals + " revived";
+    }
+
+    /**
+     * The state of a pruner after a generation, kept in a {@link Checkpoint}.
+     */
+    public static final class State implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] idle;
+        private final int[] harmful;
+        private final long[] harmfulGenerations;
+        private final int level;
+        private final long generation;
+        private final long retirements;
+        private final long revivals;
+        private final BitSet retired;
+
+        private State(final int[] idle, final int[] harmful, final long[] harmfulGenerations, final int level, final long generation,
+                final long retirements, final long revivals, final BitSet retired) {
+            this.idle = idle;
+            this.harmful = harmful;
+            this.harmfulGenerations = harmfulGenerations;
+            this.level = level;
+            this.generation = generation;
+            this.retirements = retirements;
+            this.revivals = revivals;
+            this.retired = retired;
+        }
+
+    }
+
+}
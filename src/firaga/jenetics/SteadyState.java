@@ -0,0 +1,216 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import io.jenetics.Alterer;
+import io.jenetics.AltererResult;
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+import io.jenetics.Optimize;
+import io.jenetics.Phenotype;
+import io.jenetics.Selector;
+import io.jenetics.engine.Engine;
+import io.jenetics.engine.EvolutionDurations;
+import io.jenetics.engine.EvolutionResult;
+import io.jenetics.util.Factory;
+import io.jenetics.util.ISeq;
+
+/**
+ * Steady-state evolution without a generation barrier: as soon as an evaluation finishes, its phenotype replaces the
+ * worst of the population and a new offspring is bred and submitted, so that there are always as many evaluations in
+ * flight as the population is large.
+ *
+ * Every population size of finished evaluations is reported as one generation, so that the results can be consumed
+ * like those of an {@link Engine}. The offspring selector, alterers, population size and executor are taken from the
+ * engine builder.
+ */
+public final class SteadyState {
+
+    private final Selector<IntegerGene, Integer> selector;
+    private final Alterer<IntegerGene, Integer> alterer;
+    private final Optimize optimize;
+    private final int populationSize;
+    private final Engine.Builder<IntegerGene, Integer> builder;
+
+    public SteadyState(final Engine.Builder<IntegerGene, Integer> builder) {
+        this.selector = builder.getOffspringSelector();
+        this.alterer = builder.getAlterers();
+        this.optimize = builder.getOptimize();
+        this.populationSize = builder.getPopulationSize();
+        this.builder = builder;
+    }
+
+    /**
+     * @param population the population to start from, or null to start from random genotypes
+     * @param limit stops the evolution at the first generation it does not accept, like {@code limit} of an
+     *     evolution stream
+     */
+    public final Stream<EvolutionResult<IntegerGene, Integer>> stream(
+            final ISeq<Phenotype<IntegerGene, Integer>> population,
+            final long generation,
+            final Function<Genotype<IntegerGene>, Integer> fitness,
+            final Factory<Genotype<IntegerGene>> genotypeFactory,
+            final Predicate<? super EvolutionResult<IntegerGene, Integer>> limit) {
+        final Evolution evolution = new Evolution(generation, fitness, genotypeFactory, limit);
+        for (int i = 0; i < this.populationSize; i++)
+            evolution.submit(population != null && i < population.size() ? population.get(i).getGenotype() : genotypeFactory.newInstance());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(evolution, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(evolution::cancel);
+    }
+
+    private final class Evolution implements Iterator<EvolutionResult<IntegerGene, Integer>> {
+
+        private final Function<Genotype<IntegerGene>, Integer> fitness;
+        private final Factory<Genotype<IntegerGene>> genotypeFactory;
+        private final Predicate<? super EvolutionResult<IntegerGene, Integer>> limit;
+        private final CompletionService<Phenotype<IntegerGene, Integer>> completionService;
+        private final Set<Future<Phenotype<IntegerGene, Integer>>> inFlight;
+        private final List<Phenotype<IntegerGene, Integer>> population;
+        private long generation;
+        private EvolutionResult<IntegerGene, Integer> next;
+        private boolean done;
+
+        private Evolution(final long generation, final Function<Genotype<IntegerGene>, Integer> fitness, final Factory<Genotype<IntegerGene>> genotypeFactory, final Predicate<? super EvolutionResult<IntegerGene, Integer>> limit) {
+            this.fitness = fitness;
+            this.genotypeFactory = genotypeFactory;
+            this.limit = limit;
+            this.completionService = new ExecutorCompletionService<>(SteadyState.this.builder.getExecutor());
+            this.inFlight = new HashSet<>();
+            this.population = new ArrayList<>();
+            this.generation = generation;
+            this.next = null;
+            this.done = false;
+        }
+
+        @Override
+        public final boolean hasNext() {
+            if (this.next == null && !this.done) {
+                final EvolutionResult<IntegerGene, Integer> result = this.evolve();
+                if (this.limit.test(result))
+                    this.next = result;
+                else
+                    this.cancel();
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public final EvolutionResult<IntegerGene, Integer> next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            final EvolutionResult<IntegerGene, Integer> result = this.next;
+            this.next = null;
+            return result;
+        }
+
+        private EvolutionResult<IntegerGene, Integer> evolve() {
+            final long startNanos = System.nanoTime();
+            int alterations = 0;
+            for (int evaluations = 0; evaluations < SteadyState.this.populationSize; evaluations++) {
+                this.insert(this.take());
+                alterations += this.breed();
+            }
+
+            return EvolutionResult.of(
+                    SteadyState.this.optimize,
+                    ISeq.of(this.population),
+                    this.generation++,
+                    EvolutionDurations.of(Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ofNanos(System.nanoTime() - startNanos)),
+                    0, 0, alterations);
+        }
+
+        private void submit(final Genotype<IntegerGene> genotype) {
+            final long generation = this.generation;
+            this.inFlight.add(this.completionService.submit(() -> {
+                final Phenotype<IntegerGene, Integer> phenotype = Phenotype.of(genotype, generation, this.fitness);
+                phenotype.evaluate();
+                return phenotype;
+            }));
+        }
+
+        private Phenotype<IntegerGene, Integer> take() {
+            try {
+                final Future<Phenotype<IntegerGene, Integer>> future = this.completionService.take();
+                this.inFlight.remove(future);
+                return future.get();
+            } catch (InterruptedException e) {
+                this.cancel();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                this.cancel();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        private void insert(final Phenotype<IntegerGene, Integer> phenotype) {
+            if (this.population.stream().anyMatch(p -> p.getGenotype().equals(phenotype.getGenotype())))
+                return;
+            this.population.add(phenotype);
+            if (this.population.size() > SteadyState.this.populationSize) {
+                final Comparator<Phenotype<IntegerGene, Integer>> byFitness = Comparator.comparing(Phenotype::getFitness);
+                this.population.remove(SteadyState.this.optimize == Optimize.MAXIMUM
+                        ? this.population.stream().min(byFitness).get()
+                        : this.population.stream().max(byFitness).get());
+            }
+        }
+
+        /**
+         * Submits one offspring of two selected parents, or a random genotype while the population is too small.
+         *
+         * @return the number of alterations made
+         */
+        private int breed() {
+            if (this.population.size() < 2) {
+                this.submit(this.genotypeFactory.newInstance());
+                return 0;
+            }
+            final ISeq<Phenotype<IntegerGene, Integer>> parents = SteadyState.this.selector.select(ISeq.of(this.population), 2, SteadyState.this.optimize);
+            final AltererResult<IntegerGene, Integer> altered = SteadyState.this.alterer.alter(parents, this.generation);
+            this.submit(altered.getPopulation().get(0).getGenotype());
+            return altered.getAlterations();
+        }
+
+        private void cancel() {
+            this.done = true;
+            this.inFlight.forEach(future -> future.cancel(true));
+            this.inFlight.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.jenetics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import io.jenetics.Genotype;
+import io.jenetics.IntegerGene;
+
+/**
+ * Screens decks with a linear model over card counts, trained online on every real fitness value of the same level.
+ *
+ * Once a level's model has seen enough decks, only decks predicted to be in the best {@code dueledFraction} of recent
+ * predictions are dueled; the others get their predicted fitness, which is reported so that it is not mistaken for a
+ * dueled one. A random share of the rejected decks is dueled
+ * anyway, which keeps training the model where it rejects and measures how far off it is there.
+ */
+public final class Surrogate {
+
+    private static final int WARM_UP = 100;
+    private static final int WINDOW = 200;
+    private static final double LEARNING_RATE = 0.5;
+
+    private final double dueledFraction;
+    private final double spotCheckRate;
+    private final int spellPoolSize;
+    private final Map<Integer, Model> models;
+    private final AtomicLong dueled;
+    private final AtomicLong predicted;
+    private final AtomicLong spotChecks;
+
+    public Surrogate(final double dueledFraction, final double spotCheckRate, final int spellPoolSize) {
+        this.dueledFraction = dueledFraction;
+        this.spotCheckRate = spotCheckRate;
+        this.spellPoolSize = spellPoolSize;
+        this.models = new ConcurrentHashMap<>();
+        this.dueled = new AtomicLong(0);
+        this.predicted = new AtomicLong(0);
+        this.spotChecks = new AtomicLong(0);
+    }
+
+    /**
+     * @param maxScore the highest fitness of the level, which predictions do not exceed
+     * @param predicted receives the decks given a predicted fitness
+     */
+    public final Function<Genotype<IntegerGene>, Integer> screen(final int level, final int maxScore, final Function<Genotype<IntegerGene>, Integer> duel, final Consumer<Genotype<IntegerGene>> predicted) {
+        return gt -> {
+            final Model model = this.models.computeIfAbsent(level, l -> new Model(this.spellPoolSize));
+            final DeckChromosome chromosome = gt.getChromosome().as(DeckChromosome.class);
+            final double prediction = model.predict(chromosome);
+            final boolean rejected = model.isRejected(prediction, this.dueledFraction);
+            if (rejected) {
+                if (ThreadLocalRandom.current().nextDouble() >= this.spotCheckRate) {
+                    this.predicted.incrementAndGet();
+                    predicted.accept(gt);
+                    return (int) Math.min(Math.max(Math.round(prediction), 0), maxScore);
+                }
+                this.spotChecks.incrementAndGet();
+            }
+
+            final int fitness = duel.apply(gt);
+            this.dueled.incrementAndGet();
+            model.train(chromosome, prediction, fitness, rejected);
+            return fitness;
+        };
+    }
+
+    /**
+     * @return the number of decks given a predicted fitness instead of being dueled
+     */
+    public final long getPredicted() {
+        return this.predicted.get();
+    }
+
+    public final long getDueled() {
+        return this.dueled.get();
+    }
+
+    @Override
+    public final String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Surrogate: ").append(this.getDueled()).append(" decks dueled, ")
+            .append(this.getPredicted()).append(" predicted, ")
+            .append(this.spotChecks.get()).append(" spot checks");
+        this.models.forEach((level, model) ->
+                builder.append(System.lineSeparator()).append("  Level ").append(level).append(": ").append(model));
+        return builder.toString();
+    }
+
+    /**
+     * A linear model of fitness over the number of copies of each card, with the absolute errors of its predictions
+     * measured before each training step.
+     */
+    private static final class Model {
+
+        private final double[] weights;
+        private final double[] recentPredictions;
+        private double bias;
+        private int samples;
+        private int predictions;
+        private double admittedError;
+        private int admittedCount;
+        private double spotCheckError;
+        private int spotCheckCount;
+
+        private Model(final int spellPoolSize) {
+            this.weights = new double[spellPoolSize];
+            this.recentPredictions = new double[WINDOW];
+            this.bias = 0;
+            this.samples = 0;
+            this.predictions = 0;
+            this.admittedError = 0;
+            this.admittedCount = 0;
+            this.spotCheckError = 0;
+            this.spotCheckCount = 0;
+        }
+
+        private synchronized double predict(final DeckChromosome chromosome) {
+            double prediction = this.bias;
+            for (int i = 0; i < chromosome.getCardCount(); i++)
+                prediction += this.weights[chromosome.getCardIndex(i)] * chromosome.getCardCopies(i);
+            this.recentPredictions[this.predictions++ % WINDOW] = prediction;
+            return prediction;
+        }
+
+        /**
+         * @return whether the prediction falls outside the best fraction of recent predictions
+         */
+        private synchronized boolean isRejected(final double prediction, final double dueledFraction) {
+            if (this.samples < WARM_UP)
+                return false;
+            final int n = Math.min(this.predictions, WINDOW);
+            int better = 0;
+            for (int i = 0; i < n; i++)
+                if (this.recentPredictions[i] > prediction)
+                    better++;
+            return better >= dueledFraction * n;
+        }
+
+        private synchronized void train(final DeckChromosome chromosome, final double prediction, final int fitness, final boolean spotCheck) {
+            final double error = fitness - prediction;
+            if (this.samples >= WARM_UP) {
+                if (spotCheck) {
+                    this.spotCheckError += Math.abs(error);
+                    this.spotCheckCount++;
+                }
+                else {
+                    this.admittedError += Math.abs(error);
+                    this.admittedCount++;
+                }
+            }
+
+            // Normalised least mean squares, so the step does not depend on the size of the deck
+            double norm = 1;
+            for (int i = 0; i < chromosome.getCardCount(); i++)
+                norm += chromosome.getCardCopies(i) * chromosome.getCardCopies(i);
+            final double step = LEARNING_RATE * error / norm;
+            this.bias += step;
+            for (int i = 0; i < chromosome.getCardCount(); i++)
+                this.weights[chromosome.getCardIndex(i)] += step * chromosome.getCardCopies(i);
+            this.samples++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d samples, mean absolute error %.2f on dueled decks, %.2f on spot checks",
+                    this.samples,
+                    this.admittedCount == 0 ? 0 : this.admittedError / this.admittedCount,
+                    this.spotCheckCount == 0 ? 0 : this.spotCheckError / this.spotCheckCount);
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.util.List;
+
+import magic.model.MagicCardDefinition;
+import magic.model.MagicColor;
+
+/**
+ * Per-card properties of a card pool in primitive arrays, computed once so that building decks and their land base
+ * does not go back to the card definitions.
+ */
+public final class CardPoolIndex {
+
+    public static final MagicColor[] COLORS = MagicColor.values();
+
+    private final List<MagicCardDefinition> cards;
+    private final int[][] devotion;
+    private final int[][] manaSource;
+    private final int[] manaValue;
+
+    public CardPoolIndex(final List<MagicCardDefinition> cards) {
+        this.cards = cards;
+        this.devotion = new int[COLORS.length][cards.size()];
+        this.manaSource = new int[COLORS.length][cards.size()];
+        this.manaValue = new int[cards.size()];
+        for (int i = 0; i < cards.size(); i++) {
+            final MagicCardDefinition card = cards.get(i);
+            for (int c = 0; c < COLORS.length; c++) {
+                this.devotion[c][i] = card.getCost().getDevotion(COLORS[c]);
+                this.manaSource[c][i] = card.getManaSource(COLORS[c]);
+            }
+            this.manaValue[i] = card.getConvertedCost();
+        }
+    }
+
+    public final int size() {
+        return this.cards.size();
+    }
+
+    public final MagicCardDefinition getCard(final int index) {
+        return this.cards.get(index);
+    }
+
+    public final List<MagicCardDefinition> getCards() {
+        return this.cards;
+    }
+
+    /**
+     * @param color the ordinal of a {@link MagicColor}
+     */
+    public final int getDevotion(final int color, final int index) {
+        return this.devotion[color][index];
+    }
+
+    /**
+     * @param color the ordinal of a {@link MagicColor}
+     */
+    public final int getManaSource(final int color, final int index) {
+        return this.manaSource[color][index];
+    }
+
+    /**
+     * @return the sum of the card's mana source ratings over the given colors
+     */
+    public final int getManaSource(final MagicColor[] colors, final int index) {
+        int manaSource = 0;
+        for (final MagicColor color : colors)
+            manaSource += this.manaSource[color.ordinal()][index];
+        return manaSource;
+    }
+
+    public final int getManaValue(final int index) {
+        return this.manaValue[index];
+    }
+
+}
@@ -0,0 +1,713 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import firaga.magic.duel.DuelBackend;
+import firaga.magic.duel.DuelResult;
+import firaga.magic.duel.SequentialTest;
+import firaga.util.Histogram;
+import firaga.util.Metrics;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicDeck;
+
+/**
+ * Admits duels to a number of slots, one per duel worker, that the {@link DuelBackend} decides. Local worker processes
+ * get as many slots as the core budget and the memory budget allow, a backend without worker processes of its own as
+ * many as the core budget, and a backend that knows its capacity, such as remote workers, that capacity.
+ *
+ * Each duel is split into batches of games that run independently, possibly on different workers, and whose wins
+ * are added up. With early stopping enabled, the sequential test is applied whenever a batch finishes and the
+ * batches of a settled duel that have not started are dropped.
+ *
+ * Candidate decks take turns: each candidate waiting for batches gets a slot before any candidate gets another one.
+ * Candidates of different {@link DuelShare}s are kept apart, and the share that has received the fewest games per
+ * unit of weight goes next.
+ * Within a candidate, opponents that have taken longest so far are dueled first so that a slow opponent does not
+ * hold the candidate back at the end.
+ *
+ * When nothing is queued, a batch that has run for more than {@code STRAGGLER_FACTOR} times the 95th percentile of
+ * the game time so far at its {@link Fidelity}, per game, is started again with the same seed on a spare slot, and
+ * whichever copy finishes first is used while the other one is cancelled by interrupting its dispatcher. A duel that is still running when its deadline passes is scored from the
+ * games it finished, like a stopped duel.
+ *
+ * The seed of a batch only depends on the scheduler's seed, the cards of both decks, the fidelity, how many times
+ * these decks met at this fidelity before and the batch's place in the duel, so a run with a fixed seed plays the same
+ * games whichever thread submits its duels first.
+ */
+public final class DuelScheduler {
+
+    /**
+     * Memory reserved for one duel worker: its 2 GB heap plus the rest of the JVM.
+     */
+    public static final long WORKER_MEMORY_MB = 2560;
+
+    public static final int DEFAULT_BATCH_SIZE = 5;
+
+    private static final double STRAGGLER_FACTOR = 3;
+    private static final int MIN_STRAGGLER_SAMPLES = 20;
+
+    /**
+     * The number of pairs of decks whose meetings are counted. Pairs that have not met for longest are forgotten and
+     * count as new if they meet again.
+     */
+    private static final int MAX_MEETINGS = 1 << 16;
+
+    private static DuelScheduler instance;
+
+    public static final synchronized DuelScheduler getInstance() {
+        if (instance == null)
+            instance = new DuelScheduler(0, 0, DEFAULT_BATCH_SIZE, 0);
+        return instance;
+    }
+
+    /**
+     * Sets the budgets before any duel is scheduled. A budget of 0 uses every core or all the physical memory not
+     * reserved for this JVM's heap, and a duel deadline of 0 lets duels run until they finish. The budgets are ignored
+     * by backends that know their own capacity.
+     */
+    public static final synchronized void configure(final int cores, final long memoryMB, final int batchSize, final long duelDeadlineMillis) {
+        if (instance != null)
+            throw new IllegalStateException("DuelScheduler is already running");
+        instance = new DuelScheduler(cores, memoryMB, batchSize, duelDeadlineMillis);
+    }
+
+    private final int coreBudget;
+    private final long memoryBudgetMB;
+    private final int batchSize;
+    private final Set<DuelShare> shares;
+    private final Map<MagicDeck, Double> opponentMillis;
+    private final Histogram waitTime;
+    private final Map<Fidelity, Histogram> gameTimes;
+    private final Deque<Batch> speculativeBatches;
+    private final Set<Batch> runningBatches;
+    private final long duelDeadlineNanos;
+    private final Map<Long, Integer> meetings;
+
+    private long seed;
+    private int slots;
+    private int dispatchers;
+    private int busySlots;
+    private int queuedBatches;
+    private long busyNanos;
+    private long slotNanos;
+    private long barrierIdleNanos;
+    private long lastChangeNanos;
+    private long stragglers;
+    private long timedOutDuels;
+
+    private DuelScheduler(final int cores, final long memoryMB, final int batchSize, final long duelDeadlineMillis) {
+        this.coreBudget = cores > 0 ? cores : Runtime.getRuntime().availableProcessors();
+        this.memoryBudgetMB = memoryMB > 0 ? memoryMB : getDefaultMemoryMB();
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.shares = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.opponentMillis = new IdentityHashMap<>();
+        this.waitTime = new Histogram();
+        this.gameTimes = new IdentityHashMap<>();
+        this.speculativeBatches = new ArrayDeque<>();
+        this.runningBatches = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.duelDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(duelDeadlineMillis);
+        this.meetings = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Integer> eldest) {
+                return this.size() > MAX_MEETINGS;
+            }
+        };
+        this.seed = MagicDuelHandler.nextSeed();
+        this.slots = 0;
+        this.dispatchers = 0;
+        this.busySlots = 0;
+        this.queuedBatches = 0;
+        this.busyNanos = 0;
+        this.slotNanos = 0;
+        this.barrierIdleNanos = 0;
+        this.lastChangeNanos = System.nanoTime();
+        this.stragglers = 0;
+        this.timedOutDuels = 0;
+
+        // Slots are sized once duels are scheduled, as the backend may only be chosen after the budgets
+        final Thread monitor = new Thread(this::monitor, "DuelScheduler-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Duels the deck against every opponent and waits for all of them. If the waiting thread is interrupted, the
+     * batches not yet started are withdrawn.
+     *
+     * @return the sum of the duel scores
+     */
+    public final int evaluate(final MagicDeck deck, final MagicDeck[] opponents) {
+        return this.evaluate(deck, opponents, DuelShare.DEFAULT);
+    }
+
+    /**
+     * Duels the deck against every opponent within the given share of the slots.
+     *
+     * @return the sum of the duel scores
+     */
+    public final int evaluate(final MagicDeck deck, final MagicDeck[] opponents, final DuelShare share) {
+        return this.evaluate(deck, opponents, share, Fidelity.DEFAULT);
+    }
+
+    /**
+     * Duels the deck against every opponent at the given fidelity, within the given share of the slots.
+     *
+     * @return the sum of the duel scores, scaled to full duels if the fidelity plays fewer games
+     */
+    public final int evaluate(final MagicDeck deck, final MagicDeck[] opponents, final DuelShare share, final Fidelity fidelity) {
+        int score = 0;
+        for (final DuelResult result : this.play(deck, opponents, share, fidelity, fidelity.getGames(), MagicDuelHandler.getSequentialTest()))
+            score += result.getScore();
+        return score;
+    }
+
+    /**
+     * Plays the given number of games against every opponent with the AI of a fidelity, within the given share of the
+     * slots and without early stopping.
+     *
+     * @return the wins and games against all opponents together, out of a full duel against each of them
+     */
+    public final DuelResult duel(final MagicDeck deck, final MagicDeck[] opponents, final DuelShare share, final Fidelity fidelity, final int games) {
+        int wins = 0;
+        int played = 0;
+        int timeouts = 0;
+        for (final DuelResult result : this.play(deck, opponents, share, fidelity, games, SequentialTest.NONE)) {
+            wins += result.getWins();
+            played += result.getGames();
+            timeouts += result.getTimeouts();
+        }
+        return new DuelResult(wins, played, opponents.length * MagicDuelHandler.NR_OF_GAMES, timeouts);
+    }
+
+    private List<DuelResult> play(final MagicDeck deck, final MagicDeck[] opponents, final DuelShare share, final Fidelity fidelity, final int games, final SequentialTest test) {
+        if (opponents.length == 0)
+            return Collections.emptyList();
+
+        final Candidate candidate = new Candidate(share);
+        synchronized (this) {
+            Arrays.stream(opponents)
+                .sorted(Comparator.comparingDouble(this::getExpectedMillis).reversed())
+                .forEach(opponent -> {
+                    final Match match = new Match(candidate, deck, opponent, fidelity, games, test);
+                    final SplittableRandom seeds = this.getSeeds(deck, opponent, fidelity);
+                    candidate.matches.add(match);
+                    for (int queued = 0; queued < games; queued += this.batchSize) {
+                        candidate.batches.addLast(new Batch(match, Math.min(this.batchSize, games - queued), seeds.nextLong()));
+                        match.pending++;
+                    }
+                });
+            if (share.candidates.isEmpty())
+                // A share that was idle starts level with the others instead of catching up on the time it missed
+                share.virtualTime = Math.max(share.virtualTime, this.shares.stream()
+                        .filter(other -> !other.candidates.isEmpty())
+                        .mapToDouble(other -> other.virtualTime)
+                        .min().orElse(share.virtualTime));
+            share.candidates.addLast(candidate);
+            this.shares.add(share);
+            this.updateSlots();
+            this.countIdleSlots();
+            this.queuedBatches += candidate.batches.size();
+            this.notifyAll();
+        }
+        final List<DuelResult> results = new ArrayList<>();
+        try {
+            for (final Match match : candidate.matches)
+                results.add(match.result.get());
+        } catch (InterruptedException e) {
+            this.withdraw(candidate);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Evaluation interrupted");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * @return the number of duels played at once, which follows the capacity of the backend
+     */
+    public final synchronized int getSlots() {
+        this.updateSlots();
+        return this.slots;
+    }
+
+    /**
+     * @return the number of local worker processes the core and memory budgets allow
+     */
+    public final int getLocalSlots() {
+        return (int) Math.max(1, Math.min(this.coreBudget, this.memoryBudgetMB / WORKER_MEMORY_MB));
+    }
+
+    public final int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public final synchronized int getBusySlots() {
+        return this.busySlots;
+    }
+
+    public final synchronized int getQueuedBatches() {
+        return this.queuedBatches;
+    }
+
+    /**
+     * @return the number of batches started again because they ran much longer than usual
+     */
+    public final synchronized long getStragglers() {
+        return this.stragglers;
+    }
+
+    /**
+     * @return the number of duels scored before they finished because their deadline passed
+     */
+    public final synchronized long getTimedOutDuels() {
+        return this.timedOutDuels;
+    }
+
+    /**
+     * @return the fraction of slot time spent dueling since the first duel was scheduled
+     */
+    public final synchronized double getUtilisation() {
+        return this.busyNanos / (double) Math.max(this.getSlotNanos(), 1);
+    }
+
+    /**
+     * @return the time of all slots added up since the first duel was scheduled
+     */
+    public final synchronized long getSlotNanos() {
+        this.countIdleSlots();
+        return this.slotNanos;
+    }
+
+    /**
+     * @return the slot time left idle while nothing was queued but some duels were still running, i.e. while
+     *         candidates that had finished waited for the slowest ones of their generation
+     */
+    public final synchronized long getBarrierIdleNanos() {
+        this.countIdleSlots();
+        return this.barrierIdleNanos;
+    }
+
+    /**
+     * @return the shares that have had candidates, with the games they received
+     */
+    public final synchronized List<DuelShare> getShares() {
+        return new ArrayList<>(this.shares);
+    }
+
+    @Override
+    public final synchronized String toString() {
+        return String.format("Duel scheduler: %d/%d slots busy, %d batches of %d games queued, %.0f%% utilisation, %.1f slot-seconds idle at barriers, wait %s, %d stragglers started again, %d duels timed out",
+                this.busySlots, this.slots, this.queuedBatches, this.batchSize, 100 * this.getUtilisation(), this.getBarrierIdleNanos() / 1e9, this.waitTime, this.stragglers, this.timedOutDuels);
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Batch batch;
+            try {
+                batch = this.next();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            final long startNanos = System.nanoTime();
+            final Match match = batch.match;
+            // A batch holding the whole duel can stop early inside the worker
+            final SequentialTest test = batch.games == match.requestedGames ? match.test : SequentialTest.NONE;
+            DuelResult result = null;
+            RuntimeException error = null;
+            try {
+                result = MagicDuelHandler.getDuelResult(match.deck, match.opponent, batch.games, test, match.fidelity, batch.seed);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+            this.finish(batch, result, error, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Derives the seeds of later batches from the given seed instead of a random one.
+     */
+    public final synchronized void setSeed(final long seed) {
+        this.seed = seed;
+        this.meetings.clear();
+    }
+
+    /**
+     * @return the generator of the seeds of the batches of a new duel, in order
+     */
+    private SplittableRandom getSeeds(final MagicDeck deck, final MagicDeck opponent, final Fidelity fidelity) {
+        long key = 31 * getCardsHash(deck) + getCardsHash(opponent);
+        key = 31 * key + fidelity.getName().hashCode();
+        // Decks that meet again, e.g. for more games of a game budget, must not replay the same games
+        final int meeting = this.meetings.merge(key, 1, Integer::sum);
+        return new SplittableRandom(this.seed ^ (31 * key + meeting));
+    }
+
+    private static long getCardsHash(final MagicDeck deck) {
+        // Card names, unlike card definitions, hash the same in every run
+        long hash = 0;
+        for (final MagicCardDefinition card : deck)
+            hash = 31 * hash + card.getName().hashCode();
+        return hash;
+    }
+
+    private synchronized Batch next() throws InterruptedException {
+        while (true) {
+            // Dispatchers beyond a shrunken slot count wait for a slot like batches do
+            while ((this.queuedBatches == 0 && this.speculativeBatches.isEmpty()) || this.busySlots >= this.slots)
+                this.wait();
+
+            if (this.queuedBatches > 0) {
+                final DuelShare share = this.shares.stream()
+                    .filter(s -> !s.candidates.isEmpty())
+                    .min(Comparator.comparingDouble(s -> s.virtualTime))
+                    .get();
+                final Candidate candidate = share.candidates.pollFirst();
+                final Batch batch = candidate.batches.pollFirst();
+                if (!candidate.batches.isEmpty())
+                    share.candidates.addLast(candidate);
+                share.virtualTime += batch.games / share.getWeight();
+                final long now = System.nanoTime();
+                this.waitTime.record(now - batch.queuedNanos, TimeUnit.NANOSECONDS);
+                batch.startNanos = now;
+                if (batch.match.startNanos == 0)
+                    batch.match.startNanos = now;
+                batch.match.pending--;
+                batch.match.running++;
+                batch.attempts++;
+                batch.runners.add(Thread.currentThread());
+                this.runningBatches.add(batch);
+                this.countIdleSlots();
+                this.queuedBatches--;
+                this.busySlots++;
+                return batch;
+            }
+
+            final Batch batch = this.speculativeBatches.pollFirst();
+            if (!batch.finished) {
+                batch.attempts++;
+                batch.runners.add(Thread.currentThread());
+                this.countIdleSlots();
+                this.busySlots++;
+                return batch;
+            }
+        }
+    }
+
+    private synchronized void finish(final Batch batch, final DuelResult result, final RuntimeException error, final long nanos) {
+        // A cancellation that came after the duel returned must not reach the next batch of this dispatcher
+        batch.runners.remove(Thread.currentThread());
+        Thread.interrupted();
+        this.countIdleSlots();
+        this.busySlots--;
+        this.busyNanos += nanos;
+        if (this.dispatchers > this.slots)
+            this.notifyAll();
+        batch.attempts--;
+        // Another copy of the batch finished first, or the duel ran out of time
+        if (batch.finished)
+            return;
+        // The other copy may still succeed
+        if (error != null && batch.attempts > 0)
+            return;
+
+        batch.finished = true;
+        // The other copy of a straggler gives its slot and its worker back
+        batch.runners.forEach(Thread::interrupt);
+        this.runningBatches.remove(batch);
+        final Match match = batch.match;
+        match.running--;
+        match.candidate.share.busyNanos += nanos;
+        match.fidelity.busyNanos += nanos;
+        if (error != null) {
+            match.error = error;
+        }
+        else {
+            Metrics.getInstance().recordBatch(result.getGames());
+            match.candidate.share.games += result.getGames();
+            match.fidelity.playedGames += result.getGames();
+            match.wins += result.getWins();
+            match.games += result.getGames();
+            match.timeouts += result.getTimeouts();
+            if (result.getGames() + result.getTimeouts() > 0)
+                this.gameTimes.computeIfAbsent(match.fidelity, fidelity -> new Histogram())
+                    .record(nanos / (result.getGames() + result.getTimeouts()), TimeUnit.NANOSECONDS);
+            this.opponentMillis.merge(match.opponent, nanos / 1e6 * MagicDuelHandler.NR_OF_GAMES / batch.games,
+                    (mean, latest) -> 0.8 * mean + 0.2 * latest);
+        }
+
+        if (match.pending > 0 && (match.error != null || match.test.isSettled(match.wins, match.games)))
+            this.cancelPending(match);
+        this.completeIfDone(match);
+    }
+
+    /**
+     * Adds up the slot time and the idle slot time since the last change of the slots, the busy slots or the queue,
+     * before the next change.
+     */
+    private void countIdleSlots() {
+        final long now = System.nanoTime();
+        this.slotNanos += this.slots * (now - this.lastChangeNanos);
+        if (this.queuedBatches == 0 && this.busySlots > 0)
+            this.barrierIdleNanos += Math.max(this.slots - this.busySlots, 0) * (now - this.lastChangeNanos);
+        this.lastChangeNanos = now;
+    }
+
+    /**
+     * Follows the capacity of the backend, e.g. remote workers connecting, and starts a dispatcher for every slot.
+     */
+    private void updateSlots() {
+        final DuelBackend backend = MagicDuelHandler.getBackend();
+        final int capacity = backend.getCapacity();
+        final int slots = capacity > 0 ? capacity : backend.isMemoryBound() ? this.getLocalSlots() : this.coreBudget;
+        if (slots == this.slots)
+            return;
+        this.countIdleSlots();
+        this.slots = slots;
+        for (; this.dispatchers < slots; this.dispatchers++) {
+            final Thread thread = new Thread(this::dispatch, "DuelScheduler-" + this.dispatchers);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.notifyAll();
+    }
+
+    private void completeIfDone(final Match match) {
+        if (match.pending == 0 && match.running == 0) {
+            if (match.error != null) {
+                Metrics.getInstance().recordDuel(match.startNanos, 0, 0, 0);
+                match.result.completeExceptionally(match.error);
+            }
+            else {
+                final DuelResult result = new DuelResult(match.wins, match.games, MagicDuelHandler.NR_OF_GAMES, match.timeouts);
+                Metrics.getInstance().recordDuel(match.startNanos, result.getWins(), result.getGames(), result.getScore());
+                match.result.complete(result);
+            }
+        }
+    }
+
+    private void monitor() {
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.checkRunningBatches();
+        }
+    }
+
+    private synchronized void checkRunningBatches() {
+        this.updateSlots();
+        final long now = System.nanoTime();
+        if (this.duelDeadlineNanos > 0) {
+            this.runningBatches.stream()
+                .map(batch -> batch.match)
+                .filter(match -> now - match.startNanos > this.duelDeadlineNanos)
+                .distinct()
+                .collect(Collectors.toList())
+                .forEach(this::timeOut);
+        }
+
+        final int spareSlots = this.slots - this.busySlots - this.speculativeBatches.size();
+        if (this.queuedBatches > 0 || spareSlots <= 0)
+            return;
+        // Games of cheap fidelities would make every game of an expensive one look like a straggler
+        final Map<Fidelity, Long> stragglerNanos = new IdentityHashMap<>();
+        this.gameTimes.forEach((fidelity, gameTime) -> {
+            if (gameTime.getCount() >= MIN_STRAGGLER_SAMPLES)
+                stragglerNanos.put(fidelity, (long) (STRAGGLER_FACTOR * TimeUnit.MILLISECONDS.toNanos(gameTime.getPercentileMillis(0.95))));
+        });
+        this.runningBatches.stream()
+            .filter(batch -> !batch.speculated && stragglerNanos.containsKey(batch.match.fidelity))
+            .filter(batch -> now - batch.startNanos > stragglerNanos.get(batch.match.fidelity) * batch.games)
+            .sorted(Comparator.comparingLong(batch -> batch.startNanos))
+            .limit(spareSlots)
+            .collect(Collectors.toList())
+            .forEach(batch -> {
+                batch.speculated = true;
+                this.speculativeBatches.addLast(batch);
+                this.stragglers++;
+            });
+        this.notifyAll();
+    }
+
+    /**
+     * Scores a duel from the games it finished and cancels its running batches.
+     */
+    private void timeOut(final Match match) {
+        this.timedOutDuels++;
+        if (match.pending > 0)
+            this.cancelPending(match);
+        this.runningBatches.removeIf(batch -> {
+            if (batch.match != match)
+                return false;
+            batch.finished = true;
+            batch.runners.forEach(Thread::interrupt);
+            match.running--;
+            match.timeouts += batch.games;
+            return true;
+        });
+        this.completeIfDone(match);
+    }
+
+    private synchronized void withdraw(final Candidate candidate) {
+        candidate.matches.stream()
+            .filter(match -> match.pending > 0)
+            .forEach(this::cancelPending);
+    }
+
+    private void cancelPending(final Match match) {
+        final Candidate candidate = match.candidate;
+        candidate.batches.removeIf(batch -> batch.match == match);
+        if (candidate.batches.isEmpty())
+            candidate.share.candidates.remove(candidate);
+        this.countIdleSlots();
+        this.queuedBatches -= match.pending;
+        match.pending = 0;
+    }
+
+    private double getExpectedMillis(final MagicDeck opponent) {
+        // Opponents never dueled go first, so that their cost is learnt early
+        return this.opponentMillis.getOrDefault(opponent, Double.MAX_VALUE);
+    }
+
+    private static long getDefaultMemoryMB() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        final long reservedMB = Runtime.getRuntime().maxMemory() >> 20;
+        // getTotalPhysicalMemorySize is deprecated since Java 14 in favour of getTotalMemorySize, which Java 8 lacks
+        for (final String name : new String[] { "getTotalMemorySize", "getTotalPhysicalMemorySize" }) {
+            try {
+                final Method method = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod(name);
+                if (method.getDeclaringClass().isInstance(os))
+                    return ((long) method.invoke(os) >> 20) - reservedMB;
+            } catch (ReflectiveOperationException e) {
+                // Try the next name
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    static final class Candidate {
+
+        private final DuelShare share;
+        private final List<Match> matches;
+        private final Deque<Batch> batches;
+
+        private Candidate(final DuelShare share) {
+            this.share = share;
+            this.matches = new ArrayList<>();
+            this.batches = new ArrayDeque<>();
+        }
+
+    }
+
+    /**
+     * The games of a deck against one opponent, guarded by the scheduler.
+     */
+    private static final class Match {
+
+        private final Candidate candidate;
+        private final MagicDeck deck;
+        private final MagicDeck opponent;
+        private final Fidelity fidelity;
+        private final int requestedGames;
+        private final SequentialTest test;
+        private final CompletableFuture<DuelResult> result;
+        private long startNanos;
+        private int pending;
+        private int running;
+        private int wins;
+        private int games;
+        private int timeouts;
+        private RuntimeException error;
+
+        private Match(final Candidate candidate, final MagicDeck deck, final MagicDeck opponent, final Fidelity fidelity, final int requestedGames, final SequentialTest test) {
+            this.candidate = candidate;
+            this.deck = deck;
+            this.opponent = opponent;
+            this.fidelity = fidelity;
+            this.requestedGames = requestedGames;
+            this.test = test;
+            this.result = new CompletableFuture<>();
+            this.startNanos = 0;
+            this.pending = 0;
+            this.running = 0;
+            this.wins = 0;
+            this.games = 0;
+            this.timeouts = 0;
+            this.error = null;
+        }
+
+    }
+
+    /**
+     * Some games of a match, guarded by the scheduler. A straggling batch may run on two slots at once.
+     */
+    private static final class Batch {
+
+        private final Match match;
+        private final int games;
+        private final long seed;
+        private final long queuedNanos;
+        private final List<Thread> runners;
+        private long startNanos;
+        private int attempts;
+        private boolean speculated;
+        private boolean finished;
+
+        private Batch(final Match match, final int games, final long seed) {
+            this.match = match;
+            this.games = games;
+            this.seed = seed;
+            this.queuedNanos = System.nanoTime();
+            this.runners = new ArrayList<>(2);
+            this.startNanos = 0;
+            this.attempts = 0;
+            this.speculated = false;
+            this.finished = false;
+        }
+
+    }
+
+}
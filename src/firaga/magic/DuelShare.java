@@ -0,0 +1,76 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A share of the {@link DuelScheduler}'s slots, such as the duels of one deck building target. Shares with waiting
+ * candidates are served in proportion to their weights, so equal weights split the slots fairly and a higher weight
+ * gives a share priority.
+ */
+public final class DuelShare {
+
+    public static final DuelShare DEFAULT = new DuelShare("default", 1);
+
+    private final String name;
+    private final double weight;
+    private final long startNanos;
+
+    // Guarded by the scheduler, which is the only writer of the counters
+    final Deque<DuelScheduler.Candidate> candidates;
+    double virtualTime;
+    volatile long games;
+    volatile long busyNanos;
+
+    public DuelShare(final String name, final double weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Weight of " + name + " is " + weight + ", expected a positive number");
+        this.name = name;
+        this.weight = weight;
+        this.startNanos = System.nanoTime();
+        this.candidates = new ArrayDeque<>();
+        this.virtualTime = 0;
+        this.games = 0;
+        this.busyNanos = 0;
+    }
+
+    public final String getName() {
+        return this.name;
+    }
+
+    public final double getWeight() {
+        return this.weight;
+    }
+
+    public final long getGames() {
+        return this.games;
+    }
+
+    public final double getGamesPerSecond() {
+        return this.games * 1e9 / Math.max(System.nanoTime() - this.startNanos, 1);
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("%s (weight %s): %d games, %.3f games/s, %.1f slot-hours",
+                this.name, this.weight, this.games, this.getGamesPerSecond(), this.busyNanos / 3.6e12);
+    }
+
+}
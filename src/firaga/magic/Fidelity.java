@@ -0,0 +1,131 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic;
+
+import java.util.Arrays;
+
+import magic.ai.MagicAIImpl;
+
+/**
+ * How closely duels approximate real play: the AI both players use, its level, the number of games against each
+ * opponent and the time after which a game is abandoned. Cheap fidelities tell junk from playable decks many times
+ * faster than the default.
+ *
+ * The {@link DuelScheduler} counts the games and slot time of every fidelity, so the throughput of each tier can be
+ * compared.
+ */
+public final class Fidelity {
+
+    public static final MagicAIImpl DEFAULT_AI_TYPE = MagicAIImpl.MCTSC;
+    public static final int DEFAULT_AI_LEVEL = 2;
+
+    public static final Fidelity DEFAULT = new Fidelity(DEFAULT_AI_TYPE, DEFAULT_AI_LEVEL, MagicDuelHandler.NR_OF_GAMES, 0);
+
+    private final MagicAIImpl aiType;
+    private final int aiLevel;
+    private final int games;
+    private final long gameMillis;
+
+    // Written by the scheduler only
+    volatile long playedGames;
+    volatile long busyNanos;
+
+    /**
+     * @param games the number of games against each opponent, whose wins are scaled to a full duel
+     * @param gameMillis the time after which a game is abandoned, or 0 for {@link MagicDuelHandler#getGameMillis}
+     */
+    public Fidelity(final MagicAIImpl aiType, final int aiLevel, final int games, final long gameMillis) {
+        if (aiLevel < 1 || aiLevel > 8)
+            throw new IllegalArgumentException("AI level is " + aiLevel + ", expected 1 to 8");
+        if (games <= 0)
+            throw new IllegalArgumentException("Games is " + games + ", expected a positive number");
+        this.aiType = aiType;
+        this.aiLevel = aiLevel;
+        this.games = games;
+        this.gameMillis = gameMillis;
+        this.playedGames = 0;
+        this.busyNanos = 0;
+    }
+
+    /**
+     * Parses {@code AI:LEVEL:GAMES} or {@code AI:LEVEL:GAMES:SECONDS}, e.g. {@code MMAB:1:10:60}.
+     */
+    public static final Fidelity parse(final String fidelityString) {
+        final String[] fields = fidelityString.split(":");
+        if (fields.length < 3 || fields.length > 4)
+            throw new IllegalArgumentException("Fidelity is " + fidelityString + ", expected AI:LEVEL:GAMES or AI:LEVEL:GAMES:SECONDS.");
+        final MagicAIImpl aiType = Arrays.stream(MagicAIImpl.values())
+            .filter(ai -> ai.name().equalsIgnoreCase(fields[0]))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("AI of fidelity " + fidelityString + " is " + fields[0] + ", expected one of " + Arrays.toString(MagicAIImpl.values()) + "."));
+        try {
+            return new Fidelity(aiType, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), fields.length > 3 ? 1000 * Long.parseLong(fields[3]) : 0);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Fidelity is " + fidelityString + ", expected whole numbers for LEVEL, GAMES and SECONDS.");
+        }
+    }
+
+    /**
+     * @return the fidelity as it is parsed, without the seconds
+     */
+    public final String getName() {
+        return this.aiType + ":" + this.aiLevel + ":" + this.games;
+    }
+
+    public final MagicAIImpl getAiType() {
+        return this.aiType;
+    }
+
+    public final int getAiLevel() {
+        return this.aiLevel;
+    }
+
+    public final int getGames() {
+        return this.games;
+    }
+
+    public final long getGameMillis() {
+        return this.gameMillis > 0 ? this.gameMillis : MagicDuelHandler.getGameMillis();
+    }
+
+    public final long getPlayedGames() {
+        return this.playedGames;
+    }
+
+    /**
+     * @return the games played per second of slot time, which unlike games per second of wall time does not depend on
+     *         how long the fidelity was in use
+     */
+    public final double getGamesPerSlotSecond() {
+        return this.playedGames * 1e9 / Math.max(this.busyNanos, 1);
+    }
+
+    /**
+     * @return whether duels of both fidelities are played the same way, whatever their games were counted under
+     */
+    public final boolean isSameAs(final Fidelity other) {
+        return this.aiType == other.aiType && this.aiLevel == other.aiLevel && this.games == other.games && this.getGameMillis() == other.getGameMillis();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("%s: %d games, %.3f games per slot-second, %.1f slot-hours",
+                this.getName(), this.playedGames, this.getGamesPerSlotSecond(), this.busyNanos / 3.6e12);
+    }
+
+}
@@ -17,10 +17,9 @@
 
 package firaga.magic;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.IntStream;
 
+import firaga.jenetics.DeckChromosome;
 import firaga.magic.land.LandGenerator;
 import io.jenetics.Genotype;
 import io.jenetics.IntegerGene;
@@ -31,12 +30,39 @@ import magic.model.MagicDeck;
 public final class MagicDeckCreator {
 
     public static final MagicDeck getMagicDeck(final List<MagicCardDefinition> cardPool, final Genotype<IntegerGene> genotype, final LandGenerator landGenerator) {
+        final DeckChromosome chromosome = genotype.getChromosome().as(DeckChromosome.class);
         final MagicDeck deck = new MagicDeck();
-        IntStream.range(0, cardPool.size())
-            .forEach(i -> deck.addAll(Collections.nCopies(genotype.get(0, i).intValue(), cardPool.get(i))));
+        deck.ensureCapacity(MagicConstants.MIN_DECK_SIZE);
+        for (int i = 0; i < chromosome.getCardCount(); i++)
+            addCopies(deck, cardPool.get(chromosome.getCardIndex(i)), chromosome.getCardCopies(i));
         deck.setDeckType(DeckType.Custom);
         landGenerator.addLands(deck);
         return deck;
     }
 
+    /**
+     * Builds the deck and sizes its land base from the devotion in the index, without looking at the cards again.
+     */
+    public static final MagicDeck getMagicDeck(final CardPoolIndex index, final Genotype<IntegerGene> genotype, final LandGenerator landGenerator) {
+        final DeckChromosome chromosome = genotype.getChromosome().as(DeckChromosome.class);
+        final MagicDeck deck = new MagicDeck();
+        deck.ensureCapacity(MagicConstants.MIN_DECK_SIZE);
+        final int[] devotion = new int[CardPoolIndex.COLORS.length];
+        for (int i = 0; i < chromosome.getCardCount(); i++) {
+            final int card = chromosome.getCardIndex(i);
+            final int copies = chromosome.getCardCopies(i);
+            addCopies(deck, index.getCard(card), copies);
+            for (int c = 0; c < devotion.length; c++)
+                devotion[c] += copies * index.getDevotion(c, card);
+        }
+        deck.setDeckType(DeckType.Custom);
+        landGenerator.addLands(deck, devotion);
+        return deck;
+    }
+
+    private static void addCopies(final MagicDeck deck, final MagicCardDefinition card, final int copies) {
+        for (int j = 0; j < copies; j++)
+            deck.add(card);
+    }
+
 }
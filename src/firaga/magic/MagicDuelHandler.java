@@ -17,20 +17,46 @@
 
 package firaga.magic;
 
-import static java.lang.ProcessBuilder.Redirect;
-
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.ConnectException;
+import java.net.Socket;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import firaga.magic.duel.DeckCodec;
+import firaga.magic.duel.DuelBackend;
+import firaga.magic.duel.DuelProtocol;
+import firaga.magic.duel.DuelRequest;
+import firaga.magic.duel.DuelResult;
+import firaga.magic.duel.DuelWorkerPool;
+import firaga.magic.duel.SequentialTest;
+import firaga.magic.duel.SyntheticBackend;
+import firaga.util.Metrics;
 import magic.ai.MagicAIImpl;
+import magic.data.CardDefinitions;
 import magic.data.DeckType;
 import magic.data.DuelConfig;
 import magic.headless.HeadlessGameController;
 import magic.model.DuelPlayerConfig;
+import magic.model.MagicCardDefinition;
 import magic.model.MagicDeck;
 import magic.model.MagicDuel;
 import magic.model.MagicGame;
+import magic.model.MagicRandom;
 import magic.model.player.AiProfile;
 import magic.utility.DeckUtils;
 import magic.utility.MagicSystem;
@@ -38,78 +64,239 @@ import magic.utility.ProgressReporter;
 
 public final class MagicDuelHandler {
 
-    private static final int NR_OF_GAMES = 20;
+    public static final int NR_OF_GAMES = 20;
+
+    public static final long DEFAULT_GAME_MILLIS = 3600000;
+
+    private static DuelBackend backend;
+    private static volatile SequentialTest sequentialTest = SequentialTest.NONE;
+    private static volatile long gameMillis = DEFAULT_GAME_MILLIS;
+
+    public static final synchronized DuelBackend getBackend() {
+        if (backend == null)
+            backend = DuelWorkerPool.getInstance();
+        return backend;
+    }
+
+    public static final synchronized void setBackend(final DuelBackend duelBackend) {
+        backend = duelBackend;
+    }
+
+    /**
+     * Enables early stopping of duels. Pass {@link SequentialTest#NONE} to always play every game.
+     */
+    public static final void setSequentialTest(final SequentialTest test) {
+        sequentialTest = test;
+    }
 
-    private static final MagicAIImpl AI_TYPE = MagicAIImpl.MCTSC;
-    private static final int AI_LEVEL = 2;
-    private static final int MAX_TIME = 3600000;
+    /**
+     * Sets the time after which a game is abandoned. An abandoned game is neither won nor lost.
+     */
+    public static final void setGameMillis(final long millis) {
+        gameMillis = millis;
+    }
+
+    public static final long getGameMillis() {
+        return gameMillis;
+    }
 
     public static Integer getDuelScore(final String... paths) {
-        Process p = null;
-        Scanner ans = null;
-        int score = 0;
-        try {
-            p = new ProcessBuilder(
-                    "java",
-                    "-Xms256M",
-                    "-Xmx2G",
-                    "-noverify",
-                    "-Dmagarena.dir=lib/magarena/release",
-                    "-cp",
-                    System.getProperty("java.class.path"),
-                    "firaga.magic.MagicDuelHandler",
-                    paths[0],
-                    paths[1])
-                .inheritIO()
-                .redirectOutput(Redirect.PIPE)
-                .start();
-            if (p.waitFor() == 0) {
-                ans = new Scanner(p.getInputStream());
-                score = ans.nextInt();
-            }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            if (p != null)
-                p.destroy();
-            if (ans != null)
-                ans.close();
-        }
-        return score;
+        if (paths.length != 2) throw new IllegalArgumentException("MagicDuelHandler.getDuelScore only accepts 2 decks");
+        return getDuelScore(DeckUtils.loadDeckFromFile(Paths.get(paths[0])), DeckUtils.loadDeckFromFile(Paths.get(paths[1])));
+    }
+
+    public static Integer getDuelScore(final MagicDeck deck, final MagicDeck opponent) {
+        return getDuelResult(deck, opponent).getScore();
+    }
+
+    public static final SequentialTest getSequentialTest() {
+        return sequentialTest;
+    }
+
+    public static DuelResult getDuelResult(final MagicDeck deck, final MagicDeck opponent) {
+        return getDuelResult(deck, opponent, NR_OF_GAMES, sequentialTest);
+    }
+
+    /**
+     * Plays some of the games of a duel, e.g. one batch of a duel split across workers, with a fresh seed.
+     */
+    public static DuelResult getDuelResult(final MagicDeck deck, final MagicDeck opponent, final int games, final SequentialTest test) {
+        return getDuelResult(deck, opponent, games, test, Fidelity.DEFAULT);
     }
 
-    private static Integer runDuel(final MagicDeck... decks) {
+    /**
+     * Plays some of the games of a duel with the AI and game deadline of a fidelity, with a fresh seed.
+     */
+    public static DuelResult getDuelResult(final MagicDeck deck, final MagicDeck opponent, final int games, final SequentialTest test, final Fidelity fidelity) {
+        return getDuelResult(deck, opponent, games, test, fidelity, nextSeed());
+    }
+
+    /**
+     * Plays some of the games of a duel with the AI and game deadline of a fidelity. The worker seeds Magarena's random
+     * generator with the seed, so a request played again with the same seed deals the same hands.
+     */
+    public static DuelResult getDuelResult(final MagicDeck deck, final MagicDeck opponent, final int games, final SequentialTest test, final Fidelity fidelity, final long seed) {
+        final DuelRequest request = new DuelRequest(deck, opponent, games, seed, test, fidelity.getGameMillis(), fidelity.getAiType(), fidelity.getAiLevel());
+        final DuelResult result = getBackend().getDuelResult(request);
+        Metrics.getInstance().recordGameTimeouts(result.getTimeouts());
+        return result;
+    }
+
+    /**
+     * @return a seed for a new duel request
+     */
+    public static final long nextSeed() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    private static DuelResult runDuel(final int games, final SequentialTest test, final long maxGameMillis, final MagicAIImpl aiType, final int aiLevel, final List<Long> gameMillis, final MagicDeck... decks) {
 
         if (decks.length != 2) throw new IllegalArgumentException("MagicDuelHandler.getDuelScore only accepts 2 decks");
         if (decks[0] == null || decks[1] == null) throw new NullPointerException();
 
         final DuelConfig config = DuelConfig.getInstance();
-        config.setNrOfGames(NR_OF_GAMES);
+        config.setNrOfGames(games);
 
         final MagicDuel duel = new MagicDuel(config);
         duel.initialize();
 
         final DuelPlayerConfig[] players = new DuelPlayerConfig[2];
         for (int i = 0; i < players.length; i++) {
-            players[i] = new DuelPlayerConfig(AiProfile.create("Player" + i, AI_TYPE, AI_LEVEL), null);
+            players[i] = new DuelPlayerConfig(AiProfile.create("Player" + i, aiType, aiLevel), null);
             players[i].setDeck(decks[i]);
         }
         duel.setPlayers(players);
 
-        while (duel.getGamesPlayed() < duel.getGamesTotal()) {
+        int timeouts = 0;
+        while (duel.getGamesPlayed() + timeouts < duel.getGamesTotal() && !test.isSettled(duel.getGamesWon(), duel.getGamesPlayed())) {
             final MagicGame game = duel.nextGame();
             game.setArtificial(true);
-            final HeadlessGameController controller = new HeadlessGameController(game, MAX_TIME);
-            controller.runGame();
+            final HeadlessGameController controller = new HeadlessGameController(game, maxGameMillis);
+            final long startNanos = System.nanoTime();
+            try {
+                controller.runGame();
+            } catch (RuntimeException e) {
+                // The controller aborts a game that runs past its maximum duration
+                if (System.nanoTime() - startNanos < TimeUnit.MILLISECONDS.toNanos(maxGameMillis))
+                    throw e;
+                timeouts++;
+            }
+            gameMillis.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
         }
 
-        return duel.getGamesWon();
+        return new DuelResult(duel.getGamesWon(), duel.getGamesPlayed(), duel.getGamesTotal(), timeouts);
     }
 
-    public static void main(String[] args) {
+    /**
+     * Answers duel requests until the parent quits, playing them with Magarena or, to check the protocol and the
+     * coordinator without Magarena's games, with a synthetic backend.
+     */
+    private static void runWorker(final BufferedReader in, final PrintStream out, final SyntheticBackend synthetic) throws IOException {
+        final Map<Integer, MagicCardDefinition> cards = new HashMap<>();
+        out.println(DuelProtocol.READY);
+        out.flush();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            final String[] request = line.split(DuelProtocol.SEPARATOR);
+            if (request[0].equals(DuelProtocol.QUIT))
+                break;
+
+            try {
+                if (request[0].equals(DuelProtocol.CARD)) {
+                    cards.put(Integer.parseInt(request[1]), CardDefinitions.getCard(request[2]));
+                    continue;
+                }
+                final MagicDeck deck = DeckCodec.decode(request[1], cards);
+                final MagicDeck opponent = DeckCodec.decode(request[2], cards);
+                final int games = Integer.parseInt(request[3]);
+                final List<Long> gameMillis = new ArrayList<>();
+                final long maxGameMillis = request.length > 6 ? Long.parseLong(request[6]) : DEFAULT_GAME_MILLIS;
+                final MagicAIImpl aiType = request.length > 7 ? MagicAIImpl.valueOf(request[7]) : Fidelity.DEFAULT_AI_TYPE;
+                final int aiLevel = request.length > 8 ? Integer.parseInt(request[8]) : Fidelity.DEFAULT_AI_LEVEL;
+                final long seed = Long.parseLong(request[4]);
+                final SequentialTest test = SequentialTest.decode(request[5]);
+                final DuelResult result;
+                if (synthetic != null) {
+                    result = synthetic.getDuelResult(new DuelRequest(deck, opponent, games, seed, test, maxGameMillis, aiType, aiLevel));
+                }
+                else {
+                    MagicRandom.setRNGState(seed);
+                    result = runDuel(games, test, maxGameMillis, aiType, aiLevel, gameMillis, deck, opponent);
+                }
+                final long heapUsage = getHeapUsageAfterGc();
+                out.println(String.join(DuelProtocol.SEPARATOR,
+                            DuelProtocol.RESULT,
+                            String.valueOf(result.getWins()),
+                            String.valueOf(result.getGames()),
+                            String.valueOf(result.getTotalGames()),
+                            String.valueOf(heapUsage),
+                            gameMillis.stream().map(String::valueOf).collect(Collectors.joining(",")),
+                            String.valueOf(result.getTimeouts())));
+            } catch (RuntimeException e) {
+                final String error = e.toString().replaceAll("\\s+", " ");
+                if (request[0].equals(DuelProtocol.CARD))
+                    // The parent does not wait for an answer to a card, so the duel using it fails on the unknown index
+                    System.err.println("Card " + line + " could not be loaded: " + error);
+                else
+                    out.println(DuelProtocol.ERROR + DuelProtocol.SEPARATOR + "seed " + (request.length > 4 ? request[4] : "unknown") + ": " + error);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @return the percentage of the maximum heap still in use after the last garbage collection, which unlike the
+     *         current usage does not count garbage that has not been collected yet
+     */
+    private static long getHeapUsageAfterGc() {
+        final long used = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getCollectionUsage)
+            .filter(usage -> usage != null)
+            .mapToLong(MemoryUsage::getUsed)
+            .sum();
+        return used * 100 / Runtime.getRuntime().maxMemory();
+    }
+
+    private static void runRemoteWorker(final String address, final SyntheticBackend synthetic) throws IOException, InterruptedException {
+        final int separator = address.lastIndexOf(':');
+        final String host = address.substring(0, separator);
+        final int port = Integer.parseInt(address.substring(separator + 1));
+        while (true) {
+            try (final Socket socket = new Socket(host, port)) {
+                runWorker(
+                        new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                        new PrintStream(socket.getOutputStream(), true),
+                        synthetic);
+                return;
+            } catch (ConnectException e) {
+                System.err.println("Waiting for duel coordinator at " + address);
+                Thread.sleep(5000);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
         ProgressReporter reporter = new ProgressReporter();
         MagicSystem.initialize(reporter);
 
+        if (args.length == 1 && args[0].equals("--worker")) {
+            // Keep the protocol stream clean of anything Magarena prints during games
+            final PrintStream out = System.out;
+            System.setOut(System.err);
+            runWorker(new BufferedReader(new InputStreamReader(System.in)), out, null);
+            return;
+        }
+        else if (args.length == 2 && args[0].equals("--connect")) {
+            runRemoteWorker(args[1], null);
+            return;
+        }
+        else if (args.length == 4 && args[0].equals("--connect") && args[2].equals("--synthetic")) {
+            runRemoteWorker(args[1], SyntheticBackend.parse(args[3]));
+            return;
+        }
+
         if (args.length != 2) {
             System.err.println("MagicDuelHandler must be run with exactly two decks.");
             System.exit(1);
@@ -120,7 +307,7 @@ public final class MagicDuelHandler {
             .map(DeckUtils::loadDeckFromFile)
             .toArray(MagicDeck[]::new);
 
-        System.out.println(runDuel(decks));
+        System.out.println(runDuel(NR_OF_GAMES, SequentialTest.NONE, DEFAULT_GAME_MILLIS, Fidelity.DEFAULT_AI_TYPE, Fidelity.DEFAULT_AI_LEVEL, new ArrayList<>(), decks).getWins());
 
     }
 
@@ -0,0 +1,89 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import magic.data.DeckType;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicDeck;
+
+/**
+ * Compact card index/count encoding of decks sent to duel workers, e.g. {@code 0:4,7:2,12:24}.
+ *
+ * Indices are assigned by the parent process the first time a card is encoded. Magarena's own card ids depend on the
+ * script loading order, so each worker is told the name behind an index once, before the first deck that uses it.
+ */
+public final class DeckCodec {
+
+    private static final Map<String, Integer> indices = new HashMap<>();
+    private static final List<String> names = new ArrayList<>();
+
+    static final synchronized int getIndex(final MagicCardDefinition card) {
+        return indices.computeIfAbsent(card.getName(), name -> {
+            names.add(name);
+            return names.size() - 1;
+        });
+    }
+
+    static final synchronized String getName(final int index) {
+        return names.get(index);
+    }
+
+    static final Map<Integer, Integer> getCardCounts(final MagicDeck deck) {
+        final Map<Integer, Integer> counts = new TreeMap<>();
+        deck.forEach(card -> counts.merge(getIndex(card), 1, Integer::sum));
+        return counts;
+    }
+
+    static final String encode(final Map<Integer, Integer> counts) {
+        final StringBuilder encoded = new StringBuilder();
+        counts.forEach((index, count) -> {
+            if (encoded.length() > 0)
+                encoded.append(',');
+            encoded.append(index).append(':').append(count);
+        });
+        return encoded.toString();
+    }
+
+    public static final MagicDeck decode(final String encoded, final Map<Integer, MagicCardDefinition> cards) {
+        final MagicDeck deck = new MagicDeck();
+        deck.setDeckType(DeckType.Custom);
+        // An empty deck is encoded as an empty string
+        if (encoded.isEmpty())
+            return deck;
+        for (final String entry : encoded.split(",")) {
+            final int separator = entry.indexOf(':');
+            if (separator < 0)
+                throw new IllegalArgumentException("Malformed deck entry " + entry);
+            final int index = Integer.parseInt(entry.substring(0, separator));
+            final int count = Integer.parseInt(entry.substring(separator + 1));
+            final MagicCardDefinition card = cards.get(index);
+            if (card == null)
+                throw new IllegalArgumentException("Unknown card index " + index);
+            for (int i = 0; i < count; i++)
+                deck.add(card);
+        }
+        return deck;
+    }
+
+}
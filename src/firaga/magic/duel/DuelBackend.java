@@ -0,0 +1,53 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+/**
+ * Something that can play duels, such as the local {@link DuelWorkerPool} or the remote {@link DuelCoordinator}.
+ */
+public interface DuelBackend {
+
+    /**
+     * @throws DuelFailedException if the duel could not be played
+     */
+    DuelResult getDuelResult(DuelRequest request);
+
+    /**
+     * @return the number of duels waiting for a worker
+     */
+    int getQueuedDuels();
+
+    void shutdown();
+
+    /**
+     * @return the number of duels the backend can play at once, or 0 to leave it to the core budget of the
+     *         {@link firaga.magic.DuelScheduler}
+     */
+    default int getCapacity() {
+        return 0;
+    }
+
+    /**
+     * @return whether every duel holds a worker process with its own heap on this machine, so that the memory budget
+     *         of the {@link firaga.magic.DuelScheduler} applies too
+     */
+    default boolean isMemoryBound() {
+        return false;
+    }
+
+}
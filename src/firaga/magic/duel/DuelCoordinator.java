@@ -0,0 +1,219 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands duels out to remote workers started with {@code MagicDuelHandler --connect HOST:PORT}.
+ *
+ * Duels wait in a single queue and every connected worker pulls the next one as soon as it is idle, so faster
+ * machines simply take more duels. A duel whose worker disconnects or reports an error is put back in the queue and
+ * retried elsewhere, and fails with a {@link DuelFailedException} once it has been tried {@code MAX_ATTEMPTS} times.
+ * Interrupting the thread waiting for a duel cancels it: it is not handed out any more, and the answer of a worker
+ * already playing it is dropped.
+ */
+public final class DuelCoordinator implements DuelBackend {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<Job> jobs;
+    private final Set<DuelWorker> workers;
+    private final AtomicLong duelsPlayed;
+    private final AtomicLong gamesPlayed;
+    private final AtomicLong retries;
+
+    private volatile boolean shutdown;
+
+    public DuelCoordinator(final int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.jobs = new LinkedBlockingQueue<>();
+        this.workers = ConcurrentHashMap.newKeySet();
+        this.duelsPlayed = new AtomicLong(0);
+        this.gamesPlayed = new AtomicLong(0);
+        this.retries = new AtomicLong(0);
+        this.shutdown = false;
+
+        final Thread acceptor = new Thread(this::acceptWorkers, "DuelCoordinator-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    @Override
+    public final DuelResult getDuelResult(final DuelRequest request) {
+        if (this.shutdown)
+            throw new IllegalStateException("DuelCoordinator has been shut down");
+
+        final Job job = new Job(request);
+        this.jobs.offer(job);
+        try {
+            return job.result.get();
+        } catch (InterruptedException e) {
+            job.cancelled = true;
+            this.jobs.remove(job);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Duel was cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the port workers connect to, which is chosen by the system if the coordinator was created with port 0
+     */
+    public final int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public final int getConnectedWorkers() {
+        return this.workers.size();
+    }
+
+    /**
+     * @return one duel per connected worker, or one waiting for the first worker to connect
+     */
+    @Override
+    public final int getCapacity() {
+        return Math.max(1, this.getConnectedWorkers());
+    }
+
+    @Override
+    public final int getQueuedDuels() {
+        return this.jobs.size();
+    }
+
+    @Override
+    public final String toString() {
+        return "Duel coordinator: " + this.getConnectedWorkers() + " workers, "
+            + this.duelsPlayed.get() + " duels, " + this.gamesPlayed.get() + " games played, "
+            + this.retries.get() + " duels retried";
+    }
+
+    @Override
+    public final void shutdown() {
+        this.shutdown = true;
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // Not accepting workers any more either way
+        }
+        this.workers.forEach(DuelWorker::quit);
+        Job job;
+        while ((job = this.jobs.poll()) != null)
+            job.result.completeExceptionally(new IllegalStateException("DuelCoordinator has been shut down"));
+    }
+
+    private void acceptWorkers() {
+        while (!this.shutdown) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                final Thread connection = new Thread(() -> this.serve(socket), "DuelCoordinator-" + socket.getRemoteSocketAddress());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!this.shutdown)
+                    System.err.println("Failed to accept duel worker: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        final DuelWorker worker;
+        try {
+            worker = DuelWorker.connect(socket);
+        } catch (IOException e) {
+            System.err.println("Duel worker " + socket.getRemoteSocketAddress() + " failed to connect: " + e.getMessage());
+            return;
+        }
+
+        this.workers.add(worker);
+        System.out.println("Duel worker " + worker + " connected");
+        try {
+            while (!this.shutdown) {
+                final Job job = this.jobs.take();
+                if (job.cancelled)
+                    continue;
+                try {
+                    final DuelResult result = worker.duel(job.request);
+                    this.duelsPlayed.incrementAndGet();
+                    this.gamesPlayed.addAndGet(result.getGames());
+                    job.result.complete(result);
+                } catch (DuelFailedException e) {
+                    // The worker answered in step and can take the next duel
+                    System.err.println(e.getMessage());
+                    this.retry(job, e);
+                } catch (IOException | RuntimeException e) {
+                    // A malformed answer leaves the connection out of step, so the worker is dropped either way
+                    System.err.println("Lost duel worker " + worker + ": " + e.getMessage());
+                    this.retry(job, e);
+                    return;
+                } catch (Error e) {
+                    job.result.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.workers.remove(worker);
+            worker.destroy();
+        }
+    }
+
+    private void retry(final Job job, final Exception cause) {
+        if (++job.attempts < MAX_ATTEMPTS) {
+            this.retries.incrementAndGet();
+            this.jobs.offer(job);
+        }
+        else {
+            job.result.completeExceptionally(new DuelFailedException("Duel failed on " + MAX_ATTEMPTS + " attempts", cause));
+        }
+    }
+
+    private static final class Job {
+
+        private final DuelRequest request;
+        private final CompletableFuture<DuelResult> result;
+        private int attempts;
+        private volatile boolean cancelled;
+
+        private Job(final DuelRequest request) {
+            this.request = request;
+            this.result = new CompletableFuture<>();
+            this.attempts = 0;
+            this.cancelled = false;
+        }
+
+    }
+
+}
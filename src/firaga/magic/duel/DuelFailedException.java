@@ -0,0 +1,36 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+/**
+ * Thrown by a {@link DuelBackend} when a duel could not be played, so that it is not mistaken for a duel whose deck
+ * lost every game.
+ */
+public final class DuelFailedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DuelFailedException(final String message) {
+        super(message);
+    }
+
+    public DuelFailedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+}
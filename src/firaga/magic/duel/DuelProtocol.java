@@ -0,0 +1,33 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+/**
+ * Line-based protocol spoken between {@link DuelWorkerPool} and the duel worker processes.
+ */
+public final class DuelProtocol {
+
+    public static final String READY = "READY";
+    public static final String CARD = "CARD";
+    public static final String DUEL = "DUEL";
+    public static final String RESULT = "RESULT";
+    public static final String ERROR = "ERROR";
+    public static final String QUIT = "QUIT";
+    public static final String SEPARATOR = "\t";
+
+}
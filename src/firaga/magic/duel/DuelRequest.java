@@ -0,0 +1,86 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import magic.ai.MagicAIImpl;
+import magic.model.MagicDeck;
+
+/**
+ * A duel of a candidate deck against an opponent deck, with the settings the worker has to play it with.
+ */
+public final class DuelRequest {
+
+    private final MagicDeck deck;
+    private final MagicDeck opponent;
+    private final int games;
+    private final long seed;
+    private final SequentialTest sequentialTest;
+    private final long gameMillis;
+    private final MagicAIImpl aiType;
+    private final int aiLevel;
+
+    public DuelRequest(final MagicDeck deck, final MagicDeck opponent, final int games, final long seed, final SequentialTest sequentialTest, final long gameMillis, final MagicAIImpl aiType, final int aiLevel) {
+        this.deck = deck;
+        this.opponent = opponent;
+        this.games = games;
+        this.seed = seed;
+        this.sequentialTest = sequentialTest;
+        this.gameMillis = gameMillis;
+        this.aiType = aiType;
+        this.aiLevel = aiLevel;
+    }
+
+    public final MagicDeck getDeck() {
+        return this.deck;
+    }
+
+    public final MagicDeck getOpponent() {
+        return this.opponent;
+    }
+
+    public final int getGames() {
+        return this.games;
+    }
+
+    public final long getSeed() {
+        return this.seed;
+    }
+
+    public final SequentialTest getSequentialTest() {
+        return this.sequentialTest;
+    }
+
+    /**
+     * @return the time after which a single game is abandoned
+     */
+    public final long getGameMillis() {
+        return this.gameMillis;
+    }
+
+    /**
+     * @return the AI both players use
+     */
+    public final MagicAIImpl getAiType() {
+        return this.aiType;
+    }
+
+    public final int getAiLevel() {
+        return this.aiLevel;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+/**
+ * The outcome of a duel that may have been stopped before all of its games were played.
+ *
+ * Games that ran out of time are neither won nor lost: they are left out of the games played, so the score is
+ * extrapolated from the games that finished.
+ */
+public final class DuelResult {
+
+    private final int wins;
+    private final int games;
+    private final int totalGames;
+    private final int timeouts;
+
+    public DuelResult(final int wins, final int games, final int totalGames) {
+        this(wins, games, totalGames, 0);
+    }
+
+    public DuelResult(final int wins, final int games, final int totalGames, final int timeouts) {
+        this.wins = wins;
+        this.games = games;
+        this.totalGames = totalGames;
+        this.timeouts = timeouts;
+    }
+
+    public final int getWins() {
+        return this.wins;
+    }
+
+    public final int getGames() {
+        return this.games;
+    }
+
+    public final int getTotalGames() {
+        return this.totalGames;
+    }
+
+    /**
+     * @return the number of games abandoned because they exceeded their deadline
+     */
+    public final int getTimeouts() {
+        return this.timeouts;
+    }
+
+    /**
+     * @return the number of wins extrapolated to the full duel, so stopped and complete duels are comparable
+     */
+    public final int getScore() {
+        if (this.games == 0)
+            return 0;
+        return (int) Math.round((double) this.wins * this.totalGames / this.games);
+    }
+
+    @Override
+    public final String toString() {
+        return this.wins + "/" + this.games;
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import static firaga.magic.duel.DuelProtocol.*;
+import static java.lang.ProcessBuilder.Redirect;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import firaga.util.Metrics;
+
+/**
+ * Parent side of a long-lived duel worker, either a local process or a remote worker connected over a socket.
+ *
+ * The worker initialises Magarena once and then answers one duel request per line. A worker that does not answer
+ * within the deadline of every game of the request plus a margin is considered hung, and a local worker's duel can be
+ * cancelled by interrupting the thread waiting for it.
+ */
+final class DuelWorker {
+
+    private static final long STARTUP_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long ANSWER_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long POLL_MILLIS = 10;
+
+    private final String name;
+    private final BufferedReader reader;
+    private final PrintWriter writer;
+    private final Closeable connection;
+    private final Process process;
+    private final BitSet knownCards;
+    private final long startNanos;
+
+    private int duelsPlayed;
+    private int heapUsage;
+
+    private DuelWorker(final String name, final InputStream in, final OutputStream out, final Closeable connection, final Process process, final long startNanos) throws IOException {
+        this.name = name;
+        this.reader = new BufferedReader(new InputStreamReader(in));
+        this.writer = new PrintWriter(out, true);
+        this.connection = connection;
+        this.process = process;
+        this.knownCards = new BitSet();
+        this.startNanos = startNanos;
+        this.duelsPlayed = 0;
+        this.heapUsage = 0;
+
+        final String line;
+        try {
+            line = this.readAnswer(STARTUP_MILLIS);
+        } catch (IOException e) {
+            this.destroy();
+            throw e;
+        }
+        if (!READY.equals(line)) {
+            this.destroy();
+            throw new IOException("Duel worker " + name + " failed to start");
+        }
+    }
+
+    static final DuelWorker start(final List<String> command) throws IOException {
+        final long startNanos = System.nanoTime();
+        final Process process = new ProcessBuilder(command)
+            .redirectError(Redirect.INHERIT)
+            .start();
+        final DuelWorker worker = new DuelWorker("process", process.getInputStream(), process.getOutputStream(), process::destroy, process, startNanos);
+        Metrics.getInstance().recordWorkerStartup(startNanos);
+        return worker;
+    }
+
+    static final DuelWorker connect(final Socket socket) throws IOException {
+        socket.setKeepAlive(true);
+        return new DuelWorker(socket.getRemoteSocketAddress().toString(), socket.getInputStream(), socket.getOutputStream(), socket, null, 0);
+    }
+
+    /**
+     * @throws DuelFailedException if the worker reported an error, after which it can still take requests
+     */
+    final DuelResult duel(final DuelRequest request) throws IOException {
+        final Map<Integer, Integer> deckCounts = DeckCodec.getCardCounts(request.getDeck());
+        final Map<Integer, Integer> opponentCounts = DeckCodec.getCardCounts(request.getOpponent());
+        this.sendCards(deckCounts);
+        this.sendCards(opponentCounts);
+        final long requestNanos = System.nanoTime();
+        this.writer.println(String.join(SEPARATOR,
+                    DUEL,
+                    DeckCodec.encode(deckCounts),
+                    DeckCodec.encode(opponentCounts),
+                    String.valueOf(request.getGames()),
+                    String.valueOf(request.getSeed()),
+                    request.getSequentialTest().encode(),
+                    String.valueOf(request.getGameMillis()),
+                    request.getAiType().name(),
+                    String.valueOf(request.getAiLevel())));
+        if (this.writer.checkError())
+            throw new IOException("Duel worker " + this.name + " is not accepting requests");
+
+        final String line = this.readAnswer(request.getGames() * request.getGameMillis() + ANSWER_MARGIN_MILLIS);
+        if (line == null)
+            throw new IOException("Duel worker " + this.name + " terminated during a duel");
+
+        this.duelsPlayed++;
+        final String[] response = line.split(SEPARATOR);
+        if (response[0].equals(RESULT)) {
+            this.heapUsage = Integer.parseInt(response[4]);
+            if (response.length > 5 && !response[5].isEmpty()) {
+                final long[] gameMillis = Arrays.stream(response[5].split(",")).mapToLong(Long::parseLong).toArray();
+                Arrays.stream(gameMillis).forEach(millis -> Metrics.getInstance().recordGame(TimeUnit.MILLISECONDS.toNanos(millis)));
+                // Only process workers know when they were launched
+                if (this.duelsPlayed == 1 && this.process != null)
+                    Metrics.getInstance().recordWorkerFirstGame(requestNanos - this.startNanos + TimeUnit.MILLISECONDS.toNanos(gameMillis[0]));
+            }
+            final int timeouts = response.length > 6 ? Integer.parseInt(response[6]) : 0;
+            return new DuelResult(Integer.parseInt(response[1]), Integer.parseInt(response[2]), Integer.parseInt(response[3]), timeouts);
+        }
+        else if (response[0].equals(ERROR)) {
+            throw new DuelFailedException("Duel on worker " + this.name + " failed: " + (response.length > 1 ? response[1] : "no reason given"));
+        }
+        else {
+            throw new IOException("Unexpected response from duel worker " + this.name + ": " + line);
+        }
+    }
+
+    final int getDuelsPlayed() {
+        return this.duelsPlayed;
+    }
+
+    /**
+     * @return the percentage of the maximum heap the worker used after its last duel
+     */
+    final int getHeapUsage() {
+        return this.heapUsage;
+    }
+
+    final boolean isAlive() {
+        return this.process == null || this.process.isAlive();
+    }
+
+    final void quit() {
+        this.writer.println(QUIT);
+        this.destroy();
+    }
+
+    final void destroy() {
+        try {
+            this.connection.close();
+            this.reader.close();
+        } catch (IOException e) {
+            // The worker is gone either way
+        }
+        this.writer.close();
+    }
+
+    @Override
+    public final String toString() {
+        return this.name;
+    }
+
+    /**
+     * @return the next line from the worker, or null if it terminated
+     * @throws InterruptedIOException if the waiting thread was interrupted
+     */
+    private String readAnswer(final long timeoutMillis) throws IOException {
+        if (this.connection instanceof Socket) {
+            ((Socket) this.connection).setSoTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+            return this.reader.readLine();
+        }
+
+        // A pipe can neither time out nor be interrupted while blocked, so the answer is awaited by polling
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!this.reader.ready() && this.isAlive()) {
+            if (System.nanoTime() - deadlineNanos > 0)
+                throw new IOException("Duel worker " + this.name + " did not answer within " + timeoutMillis + " ms");
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Duel on worker " + this.name + " was cancelled");
+            }
+        }
+        return this.reader.readLine();
+    }
+
+    private void sendCards(final Map<Integer, Integer> counts) {
+        for (final int index : counts.keySet()) {
+            if (!this.knownCards.get(index)) {
+                this.writer.println(CARD + SEPARATOR + index + SEPARATOR + DeckCodec.getName(index));
+                this.knownCards.set(index);
+            }
+        }
+    }
+
+}
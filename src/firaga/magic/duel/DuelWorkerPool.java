@@ -0,0 +1,192 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import firaga.magic.DuelScheduler;
+
+/**
+ * A fixed-size pool of warm duel worker processes.
+ *
+ * Workers are started on demand, reused for many duels, and replaced when they crash, hang,
+ * reach {@code maxDuelsPerWorker} duels or report a heap usage above {@code maxHeapUsage} percent.
+ * Interrupting the thread waiting for a duel cancels it and replaces its worker.
+ */
+public final class DuelWorkerPool implements DuelBackend {
+
+    private static final int MAX_ATTEMPTS = 2;
+
+    private static DuelWorkerPool instance;
+    private static WorkerProfile defaultProfile = WorkerProfile.DEFAULT;
+    private static WorkerImage defaultImage = WorkerImage.FULL;
+
+    public static final synchronized DuelWorkerPool getInstance() {
+        if (instance == null)
+            instance = new DuelWorkerPool(DuelScheduler.getInstance().getLocalSlots(), 100, 75, defaultProfile, defaultImage);
+        return instance;
+    }
+
+    /**
+     * Sets how the workers of the shared pool are launched, before it starts any.
+     */
+    public static final synchronized void configure(final WorkerProfile profile, final WorkerImage image) {
+        if (instance != null)
+            throw new IllegalStateException("DuelWorkerPool is already running");
+        defaultProfile = profile;
+        defaultImage = image;
+    }
+
+    /**
+     * @return the command that launches a duel worker with the profile's options from the image
+     */
+    static final List<String> getCommand(final WorkerProfile profile, final WorkerImage image) {
+        final List<String> command = new ArrayList<>();
+        command.add("java");
+        command.addAll(profile.getOptions());
+        command.add("-noverify");
+        command.addAll(image.getJvmOptions());
+        command.addAll(Arrays.asList(
+                "-cp",
+                System.getProperty("java.class.path"),
+                "firaga.magic.MagicDuelHandler",
+                "--worker"));
+        return command;
+    }
+
+    private final List<String> command;
+    private final int maxDuelsPerWorker;
+    private final int maxHeapUsage;
+    private final Semaphore permits;
+    private final BlockingQueue<DuelWorker> idleWorkers;
+    private final AtomicLong duelsPlayed;
+    private final AtomicLong gamesPlayed;
+
+    private volatile boolean shutdown;
+
+    public DuelWorkerPool(final int size, final int maxDuelsPerWorker, final int maxHeapUsage) {
+        this(size, maxDuelsPerWorker, maxHeapUsage, WorkerProfile.DEFAULT, WorkerImage.FULL);
+    }
+
+    public DuelWorkerPool(final int size, final int maxDuelsPerWorker, final int maxHeapUsage, final WorkerProfile profile, final WorkerImage image) {
+        this.command = getCommand(profile, image);
+        this.maxDuelsPerWorker = maxDuelsPerWorker;
+        this.maxHeapUsage = maxHeapUsage;
+        this.permits = new Semaphore(size, true);
+        this.idleWorkers = new LinkedBlockingQueue<>();
+        this.duelsPlayed = new AtomicLong(0);
+        this.gamesPlayed = new AtomicLong(0);
+        this.shutdown = false;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
+    @Override
+    public final DuelResult getDuelResult(final DuelRequest request) {
+
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            Exception failure = null;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                if (this.shutdown)
+                    throw new IllegalStateException("DuelWorkerPool has been shut down");
+
+                DuelWorker worker = this.idleWorkers.poll();
+                try {
+                    if (worker == null)
+                        worker = DuelWorker.start(this.command);
+                    final DuelResult result = worker.duel(request);
+                    this.release(worker);
+                    this.duelsPlayed.incrementAndGet();
+                    this.gamesPlayed.addAndGet(result.getGames());
+                    return result;
+                } catch (DuelFailedException e) {
+                    System.err.println(e.getMessage());
+                    this.release(worker);
+                    failure = e;
+                } catch (IOException | RuntimeException e) {
+                    // A malformed answer leaves the worker out of step, so it is replaced like a crashed one
+                    if (worker != null)
+                        worker.destroy();
+                    if (Thread.currentThread().isInterrupted())
+                        throw new CancellationException("Duel was cancelled");
+                    System.err.println("Duel worker failed, restarting: " + e.getMessage());
+                    failure = e;
+                }
+            }
+            throw new DuelFailedException("Duel failed on " + MAX_ATTEMPTS + " attempts", failure);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    public final long getDuelsPlayed() {
+        return this.duelsPlayed.get();
+    }
+
+    public final long getGamesPlayed() {
+        return this.gamesPlayed.get();
+    }
+
+    @Override
+    public final int getQueuedDuels() {
+        return this.permits.getQueueLength();
+    }
+
+    @Override
+    public final String toString() {
+        return "Duel workers: " + this.getDuelsPlayed() + " duels, " + this.getGamesPlayed() + " games played";
+    }
+
+    @Override
+    public final boolean isMemoryBound() {
+        return true;
+    }
+
+    @Override
+    public final void shutdown() {
+        this.shutdown = true;
+        DuelWorker worker;
+        while ((worker = this.idleWorkers.poll()) != null)
+            worker.quit();
+    }
+
+    private void release(final DuelWorker worker) {
+        if (this.shutdown
+                || !worker.isAlive()
+                || worker.getDuelsPlayed() >= this.maxDuelsPerWorker
+                || worker.getHeapUsage() >= this.maxHeapUsage)
+            worker.quit();
+        else
+            this.idleWorkers.offer(worker);
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import static java.lang.ProcessBuilder.Redirect;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import firaga.magic.Fidelity;
+import magic.data.CardDefinitions;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicDeck;
+import magic.utility.MagicSystem;
+import magic.utility.ProgressReporter;
+
+/**
+ * Runs a {@link DuelCoordinator} with several worker processes on this machine that play synthetic duels, and checks
+ * that every duel sent through them comes back with the result the same request gets in this process, even though
+ * one of the workers is killed halfway.
+ *
+ * Usage: {@code LoopbackCheck [WORKERS [DUELS]]}. Exits with status 1 if a result differs or a duel is lost.
+ */
+public final class LoopbackCheck {
+
+    private static final String SYNTHETIC = "5:0.5:0.02:4";
+    private static final int DECKS = 10;
+    private static final int GAMES = 5;
+
+    public static final void main(final String[] args) throws IOException, InterruptedException {
+        final int workerCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final int duelCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        // Workers load cards by name, so the decks are made of real cards
+        MagicSystem.initialize(new ProgressReporter());
+        final List<MagicCardDefinition> spells = CardDefinitions.getSpellCards();
+        final Random random = new Random(1);
+        final MagicDeck[] decks = new MagicDeck[DECKS];
+        for (int i = 0; i < decks.length; i++) {
+            decks[i] = new MagicDeck();
+            for (int card = 0; card < 60; card++)
+                decks[i].add(spells.get(random.nextInt(spells.size())));
+        }
+
+        final DuelCoordinator coordinator = new DuelCoordinator(0);
+        final List<Process> workers = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(2 * workerCount);
+        int mismatches = 0;
+        try {
+            for (int i = 0; i < workerCount; i++)
+                workers.add(startWorker(coordinator.getPort()));
+            final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (coordinator.getConnectedWorkers() < workerCount) {
+                if (System.nanoTime() > deadline)
+                    throw new IllegalStateException(coordinator.getConnectedWorkers() + " of " + workerCount + " workers connected");
+                Thread.sleep(100);
+            }
+
+            final SyntheticBackend local = SyntheticBackend.parse(SYNTHETIC);
+            final List<DuelRequest> requests = new ArrayList<>();
+            final List<Future<DuelResult>> results = new ArrayList<>();
+            for (int i = 0; i < duelCount; i++) {
+                final DuelRequest request = new DuelRequest(decks[random.nextInt(DECKS)], decks[random.nextInt(DECKS)], GAMES, random.nextLong(),
+                        SequentialTest.NONE, TimeUnit.MINUTES.toMillis(1), Fidelity.DEFAULT_AI_TYPE, Fidelity.DEFAULT_AI_LEVEL);
+                requests.add(request);
+                results.add(executor.submit(() -> coordinator.getDuelResult(request)));
+            }
+
+            // The duels of the killed worker are requeued on the others
+            results.get(duelCount / 4).get(5, TimeUnit.MINUTES);
+            if (workerCount > 1)
+                workers.get(0).destroyForcibly();
+
+            for (int i = 0; i < duelCount; i++) {
+                final DuelResult expected = local.getDuelResult(requests.get(i));
+                final DuelResult actual = results.get(i).get(5, TimeUnit.MINUTES);
+                if (actual.getWins() != expected.getWins() || actual.getGames() != expected.getGames() || actual.getTimeouts() != expected.getTimeouts()) {
+                    System.err.println("Duel " + i + " with seed " + requests.get(i).getSeed() + " returned " + actual + ", expected " + expected);
+                    mismatches++;
+                }
+            }
+            System.out.println(coordinator);
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Duel lost: " + e);
+            mismatches++;
+        } finally {
+            executor.shutdownNow();
+            coordinator.shutdown();
+            workers.forEach(Process::destroy);
+        }
+
+        System.out.println(mismatches == 0 ? "Loopback check passed" : "Loopback check failed: " + mismatches + " duels differ");
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    private static Process startWorker(final int port) throws IOException {
+        final List<String> command = new ArrayList<>(Arrays.asList("java", "-noverify"));
+        final String magarenaDir = System.getProperty("magarena.dir");
+        if (magarenaDir != null)
+            command.add("-Dmagarena.dir=" + magarenaDir);
+        command.addAll(Arrays.asList(
+                "-cp",
+                System.getProperty("java.class.path"),
+                "firaga.magic.MagicDuelHandler",
+                "--connect",
+                "localhost:" + port,
+                "--synthetic",
+                SYNTHETIC));
+        return new ProcessBuilder(command)
+            .redirectOutput(Redirect.INHERIT)
+            .redirectError(Redirect.INHERIT)
+            .start();
+    }
+
+}
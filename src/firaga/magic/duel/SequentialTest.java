@@ -0,0 +1,104 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+/**
+ * Sequential probability ratio test used to stop a duel once its outcome is settled.
+ *
+ * The test decides between a win rate of {@code threshold - indifference} and {@code threshold + indifference}
+ * with the given error rates.
+ */
+public final class SequentialTest {
+
+    public static final SequentialTest NONE = new SequentialTest();
+
+    private final boolean enabled;
+    private final double threshold;
+    private final double indifference;
+    private final double alpha;
+    private final double beta;
+
+    private final double winWeight;
+    private final double lossWeight;
+    private final double upperBound;
+    private final double lowerBound;
+
+    private SequentialTest() {
+        this.enabled = false;
+        this.threshold = 0;
+        this.indifference = 0;
+        this.alpha = 0;
+        this.beta = 0;
+        this.winWeight = 0;
+        this.lossWeight = 0;
+        this.upperBound = 0;
+        this.lowerBound = 0;
+    }
+
+    public SequentialTest(final double threshold, final double indifference, final double alpha, final double beta) {
+        final double p0 = threshold - indifference;
+        final double p1 = threshold + indifference;
+        if (p0 <= 0 || p1 >= 1) throw new IllegalArgumentException("Win rate threshold " + threshold + " with indifference " + indifference + " must stay within (0, 1)");
+        if (alpha <= 0 || alpha >= 1 || beta <= 0 || beta >= 1) throw new IllegalArgumentException("Error rates must be within (0, 1)");
+
+        this.enabled = true;
+        this.threshold = threshold;
+        this.indifference = indifference;
+        this.alpha = alpha;
+        this.beta = beta;
+
+        this.winWeight = Math.log(p1 / p0);
+        this.lossWeight = Math.log((1 - p1) / (1 - p0));
+        this.upperBound = Math.log((1 - beta) / alpha);
+        this.lowerBound = Math.log(beta / (1 - alpha));
+    }
+
+    /**
+     * Uses an indifference of 0.2, narrowed near 0 and 1 so that both hypotheses stay valid win rates.
+     */
+    public static final SequentialTest of(final double threshold) {
+        if (threshold <= 0 || threshold >= 1)
+            throw new IllegalArgumentException("Win rate threshold " + threshold + " must be within (0, 1)");
+        return new SequentialTest(threshold, Math.min(0.2, Math.min(threshold, 1 - threshold) / 2), 0.05, 0.05);
+    }
+
+    public final boolean isSettled(final int wins, final int games) {
+        if (!this.enabled)
+            return false;
+        final double llr = wins * this.winWeight + (games - wins) * this.lossWeight;
+        return llr >= this.upperBound || llr <= this.lowerBound;
+    }
+
+    public final String encode() {
+        if (!this.enabled)
+            return "-";
+        return this.threshold + "," + this.indifference + "," + this.alpha + "," + this.beta;
+    }
+
+    public static final SequentialTest decode(final String encoded) {
+        if (encoded.equals("-"))
+            return NONE;
+        final String[] values = encoded.split(",");
+        return new SequentialTest(
+                Double.parseDouble(values[0]),
+                Double.parseDouble(values[1]),
+                Double.parseDouble(values[2]),
+                Double.parseDouble(values[3]));
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import firaga.util.Metrics;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicDeck;
+
+/**
+ * Plays duels without Magarena, so that the throughput of the genetic algorithm and the duel scheduler can be
+ * measured on their own.
+ *
+ * Every card has a fixed strength derived from its name, and a deck wins each game with a logistic function of its
+ * mean strength minus the opponent's, scaled by the spread. A spread of 0 makes every game a coin flip.
+ * Each game takes a log-normally distributed time whose median grows with the AI level, and is abandoned like a real
+ * game when it runs past the deadline of the request. A fraction of the duels fail part way through and return no
+ * games, as a duel worker reporting an error does.
+ *
+ * The games of a request only depend on its seed and decks.
+ */
+public final class SyntheticBackend implements DuelBackend {
+
+    private final double medianMillis;
+    private final double sigma;
+    private final double failureRate;
+    private final double spread;
+    private final AtomicLong duels;
+    private final AtomicLong games;
+    private final AtomicLong failedDuels;
+
+    /**
+     * @param medianMillis the median time of a game at AI level 1
+     * @param sigma the standard deviation of the logarithm of the game time
+     * @param failureRate the fraction of duels that fail
+     * @param spread how much a difference in deck strength changes the chance to win
+     */
+    public SyntheticBackend(final double medianMillis, final double sigma, final double failureRate, final double spread) {
+        if (medianMillis < 0 || sigma < 0 || spread < 0)
+            throw new IllegalArgumentException("Game time, deviation and spread must not be negative");
+        if (failureRate < 0 || failureRate > 1)
+            throw new IllegalArgumentException("Failure rate is " + failureRate + ", expected 0 to 1");
+        this.medianMillis = medianMillis;
+        this.sigma = sigma;
+        this.failureRate = failureRate;
+        this.spread = spread;
+        this.duels = new AtomicLong(0);
+        this.games = new AtomicLong(0);
+        this.failedDuels = new AtomicLong(0);
+    }
+
+    /**
+     * Parses {@code MILLIS[:SIGMA[:FAILURES[:SPREAD]]]}, e.g. {@code 20:0.5:0.01:4}.
+     */
+    public static final SyntheticBackend parse(final String backendString) {
+        final String[] fields = backendString.split(":");
+        if (fields.length > 4)
+            throw new IllegalArgumentException("Synthetic backend is " + backendString + ", expected MILLIS[:SIGMA[:FAILURES[:SPREAD]]].");
+        try {
+            return new SyntheticBackend(
+                    Double.parseDouble(fields[0]),
+                    fields.length > 1 ? Double.parseDouble(fields[1]) : 0.5,
+                    fields.length > 2 ? Double.parseDouble(fields[2]) : 0,
+                    fields.length > 3 ? Double.parseDouble(fields[3]) : 4);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Synthetic backend is " + backendString + ", expected numbers.");
+        }
+    }
+
+    @Override
+    public final DuelResult getDuelResult(final DuelRequest request) {
+        this.duels.incrementAndGet();
+        final SplittableRandom random = new SplittableRandom(request.getSeed());
+        final double winProbability = 1 / (1 + Math.exp(-this.spread * (getStrength(request.getDeck()) - getStrength(request.getOpponent()))));
+        final long medianNanos = (long) (request.getAiLevel() * this.medianMillis * 1e6);
+        final long deadlineNanos = TimeUnit.MILLISECONDS.toNanos(request.getGameMillis());
+        final int failedGame = random.nextDouble() < this.failureRate ? random.nextInt(request.getGames()) : -1;
+
+        int wins = 0;
+        int played = 0;
+        int timeouts = 0;
+        while (played + timeouts < request.getGames() && !request.getSequentialTest().isSettled(wins, played)) {
+            final long gameNanos = (long) (medianNanos * Math.exp(this.sigma * gaussian(random)));
+            final boolean won = random.nextDouble() < winProbability;
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(gameNanos, deadlineNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            Metrics.getInstance().recordGame(Math.min(gameNanos, deadlineNanos));
+            if (played + timeouts == failedGame) {
+                this.failedDuels.incrementAndGet();
+                return new DuelResult(0, 0, 0);
+            }
+            if (gameNanos > deadlineNanos) {
+                timeouts++;
+                continue;
+            }
+            played++;
+            if (won)
+                wins++;
+        }
+        this.games.addAndGet(played);
+        return new DuelResult(wins, played, request.getGames(), timeouts);
+    }
+
+    @Override
+    public final int getQueuedDuels() {
+        // Duels are played on the calling thread
+        return 0;
+    }
+
+    @Override
+    public final void shutdown() {
+    }
+
+    public final long getDuelsPlayed() {
+        return this.duels.get();
+    }
+
+    public final long getGamesPlayed() {
+        return this.games.get();
+    }
+
+    public final long getFailedDuels() {
+        return this.failedDuels.get();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("Synthetic backend: %d duels, %d games played, %d duels failed, games of %.1f ms median at AI level 1",
+                this.getDuelsPlayed(), this.getGamesPlayed(), this.getFailedDuels(), this.medianMillis);
+    }
+
+    /**
+     * @return the mean strength of the cards, each between -1 and 1
+     */
+    private static double getStrength(final MagicDeck deck) {
+        if (deck.isEmpty())
+            return 0;
+        double strength = 0;
+        for (final MagicCardDefinition card : deck)
+            strength += getStrength(card);
+        return strength / deck.size();
+    }
+
+    private static double getStrength(final MagicCardDefinition card) {
+        // A fixed mix of the name's hash spreads similar names over the whole range
+        long hash = card.getName().hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 31;
+        return (hash >>> 11) * 0x1.0p-52 - 1;
+    }
+
+    private static double gaussian(final SplittableRandom random) {
+        // Box-Muller transform, as SplittableRandom has no Gaussian of its own
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+}
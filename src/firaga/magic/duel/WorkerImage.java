@@ -0,0 +1,278 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import magic.data.CardDefinitions;
+import magic.data.MagicFormat;
+import magic.model.MagicCardDefinition;
+import magic.model.MagicColor;
+import magic.model.MagicDeck;
+import magic.utility.DeckUtils;
+
+/**
+ * What a duel worker process boots from: a Magarena directory and, on Java 13 or later, a class data sharing archive.
+ *
+ * A built image holds only the card scripts of the cards legal in the run's formats, the cards of their benchmark
+ * decks, the tokens and the other faces they refer to, so a worker parses a fraction of the card database. The rest of
+ * the Magarena directory is linked to the original. The archive is dumped by a worker that started and quit, and holds
+ * the classes Magarena loads during initialisation.
+ */
+public final class WorkerImage {
+
+    public static final String MAGARENA_DIR = "lib/magarena/release";
+
+    /**
+     * The full Magarena directory without an archive, as used before images existed.
+     */
+    public static final WorkerImage FULL = new WorkerImage(Paths.get(MAGARENA_DIR), null);
+
+    // Script properties that name another card the worker has to know
+    private static final List<String> REFERENCES = Arrays.asList("transform", "flip", "split", "meld");
+
+    private final Path magarenaDir;
+    private final Path archive;
+
+    private WorkerImage(final Path magarenaDir, final Path archive) {
+        this.magarenaDir = magarenaDir;
+        this.archive = archive;
+    }
+
+    /**
+     * @return the options that make a worker JVM boot from this image
+     */
+    public final List<String> getJvmOptions() {
+        final List<String> options = new ArrayList<>();
+        options.add("-Dmagarena.dir=" + this.magarenaDir);
+        if (this.archive != null)
+            options.add("-XX:SharedArchiveFile=" + this.archive);
+        return options;
+    }
+
+    @Override
+    public final String toString() {
+        return "Worker image " + this.magarenaDir + (this.archive != null ? " with class archive " + this.archive : "");
+    }
+
+    /**
+     * Builds the image for the formats under the directory, or reuses the one built for the same cards, and reports the
+     * worker startup time with the full database and with the image.
+     */
+    public static final WorkerImage build(final Path dir, final Collection<MagicFormat> formats, final WorkerProfile profile) {
+        final Set<String> cards = getCardNames(formats);
+        final Path imageDir = dir.resolve(hash(cards));
+        final Path magarenaDir = imageDir.resolve("release");
+        final Path archive = imageDir.resolve("worker.jsa");
+        final Path complete = imageDir.resolve("complete");
+        final boolean archiveSupported = getJavaVersion() >= 13;
+
+        try {
+            if (Files.exists(complete)) {
+                System.out.println("Reusing worker image " + imageDir + ": " + new String(Files.readAllBytes(complete), StandardCharsets.UTF_8).trim());
+                return new WorkerImage(magarenaDir, archiveSupported && Files.exists(archive) ? archive : null);
+            }
+
+            final int scripts = copyScripts(Paths.get(MAGARENA_DIR), magarenaDir, cards);
+            final long fullMillis = getStartupMillis(FULL, profile, null);
+            final long imageMillis = getStartupMillis(new WorkerImage(magarenaDir, null), profile, archiveSupported ? archive : null);
+            final WorkerImage image = new WorkerImage(magarenaDir, archiveSupported && Files.exists(archive) ? archive : null);
+            final long archivedMillis = image.archive != null ? getStartupMillis(image, profile, null) : imageMillis;
+
+            final String report = String.format("%d card scripts, worker startup %.1f s with the full database, %.1f s with the image%s",
+                    scripts, fullMillis / 1e3, imageMillis / 1e3, image.archive != null ? String.format(", %.1f s with the class archive", archivedMillis / 1e3) : "");
+            Files.write(complete, report.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Built worker image " + imageDir + ": " + report);
+            return image;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Set<String> getCardNames(final Collection<MagicFormat> formats) {
+        final Set<String> cards = new TreeSet<>();
+        for (final MagicFormat format : formats) {
+            Stream.concat(CardDefinitions.getSpellCards().stream(), CardDefinitions.getNonBasicLandCards())
+                .filter(format::isCardLegal)
+                .map(MagicCardDefinition::getName)
+                .forEach(cards::add);
+            try (final Stream<Path> files = Files.walk(DeckUtils.getDecksFolder())) {
+                final String prefix = "Benchmark_" + format.getName().replace(' ', '_') + "_";
+                files.filter(Files::isRegularFile)
+                    .filter(file -> file.getFileName().toString().startsWith(prefix))
+                    .map(DeckUtils::loadDeckFromFile)
+                    .flatMap(MagicDeck::stream)
+                    .map(MagicCardDefinition::getName)
+                    .forEach(cards::add);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Arrays.stream(MagicColor.values())
+            .map(CardDefinitions::getBasicLand)
+            .map(MagicCardDefinition::getName)
+            .forEach(cards::add);
+        return cards;
+    }
+
+    /**
+     * Links everything in the Magarena directory except the card scripts, of which only those of the cards and the
+     * cards they refer to are copied.
+     *
+     * @return the number of scripts copied
+     */
+    private static int copyScripts(final Path source, final Path target, final Set<String> cards) throws IOException {
+        final Path sourceData = source.resolve("Magarena");
+        final Path targetData = target.resolve("Magarena");
+        Files.createDirectories(targetData);
+        link(source, target, "Magarena");
+        link(sourceData, targetData, "scripts", "scripts_missing");
+        Files.createDirectories(targetData.resolve("scripts_missing"));
+
+        final Path sourceScripts = sourceData.resolve("scripts");
+        final Path targetScripts = targetData.resolve("scripts");
+        Files.createDirectories(targetScripts);
+        final Map<String, Path> scriptsByName = new HashMap<>();
+        final Map<Path, List<String>> references = new HashMap<>();
+        // Tokens can be created by any card, so every token is kept
+        final Deque<String> pending = new ArrayDeque<>(cards);
+        try (final Stream<Path> files = Files.list(sourceScripts)) {
+            for (final Path script : files.filter(file -> file.toString().endsWith(".txt")).collect(Collectors.toList())) {
+                final List<String> lines = Files.readAllLines(script, StandardCharsets.UTF_8);
+                final List<String> referenced = new ArrayList<>();
+                String name = null;
+                boolean token = false;
+                for (final String line : lines) {
+                    final int separator = line.indexOf('=');
+                    if (separator < 0)
+                        continue;
+                    final String key = line.substring(0, separator).trim();
+                    final String value = line.substring(separator + 1).trim();
+                    if (key.equals("name"))
+                        name = value;
+                    else if (key.equals("token"))
+                        token = true;
+                    else if (REFERENCES.contains(key))
+                        referenced.add(value);
+                }
+                if (name != null) {
+                    scriptsByName.put(name, script);
+                    if (token)
+                        pending.add(name);
+                }
+                references.put(script, referenced);
+            }
+        }
+
+        final Set<Path> copied = new HashSet<>();
+        while (!pending.isEmpty()) {
+            final Path script = scriptsByName.get(pending.poll());
+            if (script == null || !copied.add(script))
+                continue;
+            Files.copy(script, targetScripts.resolve(script.getFileName()));
+            final Path groovy = script.resolveSibling(script.getFileName().toString().replaceAll("\\.txt$", ".groovy"));
+            if (Files.exists(groovy))
+                Files.copy(groovy, targetScripts.resolve(groovy.getFileName()));
+            pending.addAll(references.get(script));
+        }
+        return copied.size();
+    }
+
+    private static void link(final Path source, final Path target, final String... except) throws IOException {
+        final List<String> skipped = Arrays.asList(except);
+        try (final Stream<Path> entries = Files.list(source)) {
+            for (final Path entry : entries.collect(Collectors.toList())) {
+                if (!skipped.contains(entry.getFileName().toString()))
+                    Files.createSymbolicLink(target.resolve(entry.getFileName()), entry.toAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Starts a worker from the image and quits it as soon as it is ready, dumping its classes to the archive if one is
+     * given.
+     *
+     * @return the milliseconds until the worker was ready
+     */
+    private static long getStartupMillis(final WorkerImage image, final WorkerProfile profile, final Path dumpArchive) throws IOException {
+        final List<String> command = DuelWorkerPool.getCommand(profile, image);
+        if (dumpArchive != null)
+            command.add(1, "-XX:ArchiveClassesAtExit=" + dumpArchive);
+        final long startNanos = System.nanoTime();
+        final Process process = new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                final PrintWriter writer = new PrintWriter(process.getOutputStream(), true)) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(DuelProtocol.READY))
+                continue;
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (line == null)
+                throw new IOException("Duel worker from " + image + " failed to start");
+            writer.println(DuelProtocol.QUIT);
+            process.waitFor(5, TimeUnit.MINUTES);
+            return millis;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    private static String hash(final Set<String> cards) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            cards.forEach(card -> digest.update((card + '\n').getBytes(StandardCharsets.UTF_8)));
+            return String.format("%040x", new BigInteger(1, digest.digest())).substring(0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int getJavaVersion() {
+        final String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.magic.duel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Heap and garbage collector options duel worker processes are launched with.
+ */
+public enum WorkerProfile {
+
+    /** A small initial heap that grows to 2 GB, with the JVM's default collector. */
+    DEFAULT("-Xms256M", "-Xmx2G"),
+    /** The whole 2 GB heap up front and the parallel collector, for the most games per second. */
+    THROUGHPUT("-Xms2G", "-Xmx2G", "-XX:+UseParallelGC"),
+    /** The serial collector and a heap that gives memory back, for machines with more workers than cores. */
+    COMPACT("-Xms128M", "-Xmx2G", "-XX:+UseSerialGC", "-XX:MinHeapFreeRatio=10", "-XX:MaxHeapFreeRatio=30");
+
+    private final List<String> options;
+
+    private WorkerProfile(final String... options) {
+        this.options = Collections.unmodifiableList(Arrays.asList(options));
+    }
+
+    public final List<String> getOptions() {
+        return this.options;
+    }
+
+}
@@ -17,11 +17,10 @@
 
 package firaga.magic.land;
 
-import java.util.Arrays;
-import java.util.Collections;
-
+import firaga.magic.CardPoolIndex;
 import firaga.magic.MagicConstants;
 import magic.data.CardDefinitions;
+import magic.model.MagicCardDefinition;
 import magic.model.MagicColor;
 import magic.model.MagicDeck;
 
@@ -35,40 +34,41 @@ public final class BasicLandGenerator implements LandGenerator {
         return instance;
     }
 
-    private final class ColorCount {
-
-        private final MagicColor color;
-        private final int count;
-
-        private ColorCount(MagicColor color, int count) {
-            this.color = color;
-            this.count = count;
-        }
-
+    @Override
+    public final void addLands(final MagicDeck deck) {
+        final int[] devotion = new int[CardPoolIndex.COLORS.length];
+        for (final MagicCardDefinition card : deck)
+            for (int c = 0; c < devotion.length; c++)
+                devotion[c] += card.getCost().getDevotion(CardPoolIndex.COLORS[c]);
+        this.addLands(deck, devotion);
     }
 
     @Override
-    public final void addLands(final MagicDeck deck) {
-        final ColorCount[] colorCounts =
-            Arrays.stream(MagicColor.values())
-            .map(color -> new ColorCount(
-                        color,
-                        deck.stream().mapToInt(c -> c.getCost().getDevotion(color)).sum()))
-            .toArray(ColorCount[]::new);
-        final int allColors = Arrays.stream(colorCounts).mapToInt(cc -> cc.count).sum();
+    public final void addLands(final MagicDeck deck, final int[] devotion) {
+        int allColors = 0;
+        int minColor = 0;
+        for (int c = 0; c < devotion.length; c++) {
+            allColors += devotion[c];
+            if (devotion[c] < devotion[minColor])
+                minColor = c;
+        }
         final int landCount = MagicConstants.MIN_DECK_SIZE - deck.size();
 
         if (allColors != 0) {
-            Arrays.stream(colorCounts).forEach(cc ->
-                    deck.addAll(Collections.nCopies(cc.count * landCount / allColors, CardDefinitions.getBasicLand(cc.color))));
-            Arrays.stream(colorCounts)
-                .min((cc1, cc2) -> Integer.compare(cc1.count, cc2.count))
-                .ifPresent(cc -> deck.addAll(Collections.nCopies(Math.max(landCount - deck.size(), 0), CardDefinitions.getBasicLand(cc.color))));
+            for (int c = 0; c < devotion.length; c++)
+                addCopies(deck, CardPoolIndex.COLORS[c], devotion[c] * landCount / allColors);
+            addCopies(deck, CardPoolIndex.COLORS[minColor], Math.max(landCount - deck.size(), 0));
         }
         else {
             // Use Plains for colourless decks
-            deck.addAll(Collections.nCopies(landCount, CardDefinitions.getBasicLand(MagicColor.White)));
+            addCopies(deck, MagicColor.White, landCount);
         }
     }
 
+    private static void addCopies(final MagicDeck deck, final MagicColor color, final int copies) {
+        final MagicCardDefinition land = CardDefinitions.getBasicLand(color);
+        for (int i = 0; i < copies; i++)
+            deck.add(land);
+    }
+
 }
@@ -17,10 +17,18 @@
 
 package firaga.magic.land;
 
+import magic.model.MagicColor;
 import magic.model.MagicDeck;
 
 public interface LandGenerator {
 
     void addLands(MagicDeck deck);
 
+    /**
+     * Adds lands to a deck whose devotion to each color, indexed by {@link MagicColor#ordinal()}, is already known.
+     */
+    default void addLands(final MagicDeck deck, final int[] devotion) {
+        this.addLands(deck);
+    }
+
 }
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import firaga.magic.CardPoolIndex;
 import magic.data.CardDefinitions;
 import magic.data.MagicFormat;
 import magic.model.MagicCardDefinition;
@@ -30,16 +31,19 @@ import magic.model.MagicDeck;
 public class LandPool implements LandGenerator {
 
     protected final List<MagicCardDefinition> lands;
+    protected final CardPoolIndex landIndex;
 
     public LandPool(MagicFormat format, MagicColor... colors) {
+        // Only the deck's colours are rated, and only the kept lands are indexed for all of them
         lands = CardDefinitions.getNonBasicLandCards()
             .filter(format::isCardLegal)
-            .filter(card -> Arrays.stream(colors).map(card::getManaSource).reduce(Integer::sum).get() >= 5)
+            .filter(card -> Arrays.stream(colors).mapToInt(card::getManaSource).sum() >= 5)
             .collect(Collectors.toList());
         if (colors.length > 0)
             lands.addAll(Arrays.stream(colors).map(CardDefinitions::getBasicLand).collect(Collectors.toList()));
         else // Use plains for colourless decks
             lands.add(CardDefinitions.getBasicLand(MagicColor.White));
+        landIndex = new CardPoolIndex(lands);
     }
 
     @Override
@@ -49,4 +53,9 @@ public class LandPool implements LandGenerator {
         BasicLandGenerator.getInstance().addLands(deck);
     }
 
+    @Override
+    public void addLands(MagicDeck deck, int[] devotion) {
+        BasicLandGenerator.getInstance().addLands(deck, devotion);
+    }
+
 }
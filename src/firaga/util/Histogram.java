@@ -0,0 +1,92 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in buckets of powers of two milliseconds.
+ *
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public final class Histogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public Histogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong(0);
+        this.sum = new AtomicLong(0);
+        this.max = new AtomicLong(0);
+    }
+
+    public final void record(final long duration, final TimeUnit unit) {
+        final long millis = Math.max(unit.toMillis(duration), 0);
+        this.buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(millis);
+        this.max.accumulateAndGet(millis, Math::max);
+    }
+
+    public final void recordSince(final long startNanos) {
+        this.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public final long getCount() {
+        return this.count.get();
+    }
+
+    public final double getMeanMillis() {
+        final long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    public final long getMaxMillis() {
+        return this.max.get();
+    }
+
+    /**
+     * @return an upper bound in milliseconds of the given fraction of the recorded durations
+     */
+    public final long getPercentileMillis(final double fraction) {
+        final long target = (long) Math.ceil(fraction * this.count.get());
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if (seen >= target && seen > 0)
+                return Math.min(i == 0 ? 0 : 1L << i, this.getMaxMillis());
+        }
+        return this.getMaxMillis();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("n=%d mean=%.0fms p50=%dms p90=%dms p99=%dms max=%dms",
+                this.getCount(), this.getMeanMillis(),
+                this.getPercentileMillis(0.5), this.getPercentileMillis(0.9), this.getPercentileMillis(0.99),
+                this.getMaxMillis());
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of a run, to tell whether time goes into starting workers, playing games
+ * or waiting for a free worker.
+ *
+ * A summary line is appended to a file periodically, and durations are also emitted as JFR events when the JVM
+ * supports them and the events were built.
+ */
+public final class Metrics {
+
+    private static Metrics instance;
+
+    public static final synchronized Metrics getInstance() {
+        if (instance == null)
+            instance = new Metrics();
+        return instance;
+    }
+
+    private static final MetricsEvents EVENTS = MetricsEvents.load();
+
+    private final long startNanos;
+    private final Histogram workerStartup;
+    private final Histogram workerFirstGame;
+    private final Histogram duelLatency;
+    private final Histogram gameLatency;
+    private final Histogram fitnessLatency;
+    private final AtomicLong duels;
+    private final AtomicLong batches;
+    private final AtomicLong games;
+    private final AtomicLong failedDuels;
+    private final AtomicLong zeroScoreDuels;
+    private final AtomicLong gameTimeouts;
+    private final Map<String, LongSupplier> gauges;
+
+    private ScheduledExecutorService flusher;
+    private long lastFlushNanos;
+    private long lastFlushGames;
+
+    private Metrics() {
+        this.startNanos = System.nanoTime();
+        this.workerStartup = new Histogram();
+        this.workerFirstGame = new Histogram();
+        this.duelLatency = new Histogram();
+        this.gameLatency = new Histogram();
+        this.fitnessLatency = new Histogram();
+        this.duels = new AtomicLong(0);
+        this.batches = new AtomicLong(0);
+        this.games = new AtomicLong(0);
+        this.failedDuels = new AtomicLong(0);
+        this.zeroScoreDuels = new AtomicLong(0);
+        this.gameTimeouts = new AtomicLong(0);
+        this.gauges = new ConcurrentSkipListMap<>();
+        this.lastFlushNanos = this.startNanos;
+        this.lastFlushGames = 0;
+    }
+
+    /**
+     * Records the time from spawning a duel worker process until it is ready for duels.
+     */
+    public final void recordWorkerStartup(final long startNanos) {
+        this.workerStartup.recordSince(startNanos);
+        EVENTS.commitWorkerStartup(startNanos);
+    }
+
+    /**
+     * Records the time from spawning a duel worker process until it finished its first game.
+     */
+    public final void recordWorkerFirstGame(final long nanos) {
+        this.workerFirstGame.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public final void recordGame(final long nanos) {
+        this.gameLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a batch of the games of a duel, once per batch even if a straggler ran it twice.
+     */
+    public final void recordBatch(final int games) {
+        this.batches.incrementAndGet();
+        this.games.addAndGet(games);
+    }
+
+    /**
+     * Records a duel once all its batches are done, from the start of its first batch. A duel that played no games
+     * failed: the workers reported errors or could not be reached.
+     */
+    public final void recordDuel(final long startNanos, final int wins, final int games, final int score) {
+        this.duelLatency.recordSince(startNanos);
+        this.duels.incrementAndGet();
+        if (games == 0)
+            this.failedDuels.incrementAndGet();
+        else if (score == 0)
+            this.zeroScoreDuels.incrementAndGet();
+        EVENTS.commitDuel(startNanos, wins, games, score);
+    }
+
+    /**
+     * Records games abandoned because they exceeded the per-game deadline.
+     */
+    public final void recordGameTimeouts(final int timeouts) {
+        this.gameTimeouts.addAndGet(timeouts);
+    }
+
+    /**
+     * Records the evaluation of one deck against all benchmark decks of a level.
+     */
+    public final void recordFitness(final long startNanos, final int level, final int fitness) {
+        this.fitnessLatency.recordSince(startNanos);
+        EVENTS.commitFitness(startNanos, level, fitness);
+    }
+
+    /**
+     * Reports the value of the supplier, e.g. a queue length or a cache counter, with every flush.
+     */
+    public final void registerGauge(final String name, final LongSupplier value) {
+        this.gauges.put(name, value);
+    }
+
+    /**
+     * Appends a summary line to the file every period until the JVM exits.
+     */
+    public final synchronized void startFlushing(final Path file, final long period, final TimeUnit unit) {
+        if (this.flusher != null)
+            this.flusher.shutdownNow();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleAtFixedRate(() -> this.flush(file), period, period, unit);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> this.flush(file)));
+    }
+
+    /**
+     * @return the number of decks evaluated against the benchmark decks of a level, not counting cached fitnesses
+     */
+    public final long getFitnessEvaluations() {
+        return this.fitnessLatency.getCount();
+    }
+
+    public final double getGamesPerSecond() {
+        return this.games.get() * 1e9 / Math.max(System.nanoTime() - this.startNanos, 1);
+    }
+
+    @Override
+    public final String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Metrics:");
+        builder.append(System.lineSeparator()).append("  Worker startup: ").append(this.workerStartup);
+        builder.append(System.lineSeparator()).append("  Worker first game: ").append(this.workerFirstGame);
+        builder.append(System.lineSeparator()).append("  Fitness: ").append(this.fitnessLatency);
+        builder.append(System.lineSeparator()).append("  Duels: ").append(this.duelLatency);
+        builder.append(System.lineSeparator()).append("  Games: ").append(this.gameLatency);
+        builder.append(System.lineSeparator()).append(String.format("  %.3f games/s, %d failed duels, %d zero-scored duels, %d games timed out",
+                    this.getGamesPerSecond(), this.failedDuels.get(), this.zeroScoreDuels.get(), this.gameTimeouts.get()));
+        this.gauges.forEach((name, value) ->
+                builder.append(System.lineSeparator()).append("  ").append(name).append(": ").append(value.getAsLong()));
+        return builder.toString();
+    }
+
+    private synchronized void flush(final Path file) {
+        final long now = System.nanoTime();
+        final long games = this.games.get();
+        final double recentGamesPerSecond = (games - this.lastFlushGames) * 1e9 / Math.max(now - this.lastFlushNanos, 1);
+        this.lastFlushNanos = now;
+        this.lastFlushGames = games;
+
+        final StringBuilder line = new StringBuilder();
+        line.append(LocalDateTime.now());
+        field(line, "duels", this.duels.get());
+        field(line, "batches", this.batches.get());
+        field(line, "games", games);
+        field(line, "gamesPerSecond", String.format("%.3f", recentGamesPerSecond));
+        field(line, "failedDuels", this.failedDuels.get());
+        field(line, "zeroScoreDuels", this.zeroScoreDuels.get());
+        field(line, "gameTimeouts", this.gameTimeouts.get());
+        field(line, "workerStartup", this.workerStartup);
+        field(line, "workerFirstGame", this.workerFirstGame);
+        field(line, "fitness", this.fitnessLatency);
+        field(line, "duel", this.duelLatency);
+        field(line, "game", this.gameLatency);
+        this.gauges.forEach((name, value) -> field(line, name, value.getAsLong()));
+        line.append(System.lineSeparator());
+
+        try {
+            Files.write(file, line.toString().getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Failed to write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void field(final StringBuilder line, final String name, final Object value) {
+        line.append('\t').append(name).append('=').append(value);
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.util;
+
+/**
+ * Where {@link Metrics} sends the durations it records as events, such as the JFR events built from {@code jfr/}.
+ */
+interface MetricsEvents {
+
+    MetricsEvents NONE = new MetricsEvents() {
+        @Override
+        public void commitWorkerStartup(final long startNanos) {
+        }
+
+        @Override
+        public void commitDuel(final long startNanos, final int wins, final int games, final int score) {
+        }
+
+        @Override
+        public void commitFitness(final long startNanos, final int level, final int fitness) {
+        }
+    };
+
+    void commitWorkerStartup(long startNanos);
+
+    void commitDuel(long startNanos, int wins, int games, int score);
+
+    void commitFitness(long startNanos, int level, int fitness);
+
+    /**
+     * @return the JFR events if they were built and the JVM has the JFR event API, or {@link #NONE}
+     */
+    static MetricsEvents load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (MetricsEvents) Class.forName("firaga.util.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return NONE;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright (C) 2018 Ada Joule
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package firaga.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * How fast a run processes decks and where its time goes, measured from the moment this is created: fitness
+ * evaluations per second, the share of the cores the process used, how busy the duel slots were, the slot time left
+ * idle at generation barriers and the rate at which the process allocated memory.
+ *
+ * CPU time and allocations are only reported on JVMs that measure them, and allocations of threads that have ended
+ * are not counted.
+ */
+public final class Throughput {
+
+    private final LongSupplier evaluations;
+    private final DoubleSupplier slotUtilisation;
+    private final LongSupplier barrierIdleNanos;
+    private final LongSupplier slotNanos;
+    private final long startNanos;
+    private final long startEvaluations;
+    private final long startCpuNanos;
+    private final long startAllocatedBytes;
+    private final long startBarrierIdleNanos;
+    private final long startSlotNanos;
+
+    /**
+     * @param slotUtilisation the fraction of slot time spent dueling since the slots started
+     * @param barrierIdleNanos the slot time left idle at generation barriers since the slots started
+     * @param slotNanos the time of all slots added up since they started, as their number may change
+     */
+    public Throughput(final LongSupplier evaluations, final DoubleSupplier slotUtilisation, final LongSupplier barrierIdleNanos, final LongSupplier slotNanos) {
+        this.evaluations = evaluations;
+        this.slotUtilisation = slotUtilisation;
+        this.barrierIdleNanos = barrierIdleNanos;
+        this.slotNanos = slotNanos;
+        this.startNanos = System.nanoTime();
+        this.startEvaluations = evaluations.getAsLong();
+        this.startCpuNanos = getCpuNanos();
+        this.startAllocatedBytes = getAllocatedBytes();
+        this.startBarrierIdleNanos = barrierIdleNanos.getAsLong();
+        this.startSlotNanos = slotNanos.getAsLong();
+    }
+
+    public final double getEvaluationsPerSecond() {
+        return (this.evaluations.getAsLong() - this.startEvaluations) * 1e9 / this.getElapsedNanos();
+    }
+
+    /**
+     * @return the CPU time of the process as a fraction of the time of all cores, or -1 if it is not measured
+     */
+    public final double getCoreUtilisation() {
+        final long cpuNanos = getCpuNanos();
+        if (cpuNanos < 0 || this.startCpuNanos < 0)
+            return -1;
+        return (cpuNanos - this.startCpuNanos) / ((double) this.getElapsedNanos() * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the slot time left idle at generation barriers as a fraction of the time of all slots
+     */
+    public final double getBarrierIdleFraction() {
+        return (this.barrierIdleNanos.getAsLong() - this.startBarrierIdleNanos) / (double) Math.max(this.slotNanos.getAsLong() - this.startSlotNanos, 1);
+    }
+
+    /**
+     * @return the bytes allocated per second, or -1 if they are not measured
+     */
+    public final double getAllocationRate() {
+        final long allocatedBytes = getAllocatedBytes();
+        if (allocatedBytes < 0 || this.startAllocatedBytes < 0)
+            return -1;
+        return (allocatedBytes - this.startAllocatedBytes) * 1e9 / this.getElapsedNanos();
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("Throughput: %d evaluations in %.1f s, %.3f evaluations/s, %.0f%% of %d cores, %.0f%% of slot time busy, %.0f%% of slot time idle at generation barriers, %.1f MB/s allocated",
+                this.evaluations.getAsLong() - this.startEvaluations, this.getElapsedNanos() / 1e9, this.getEvaluationsPerSecond(),
+                100 * this.getCoreUtilisation(), Runtime.getRuntime().availableProcessors(),
+                100 * this.slotUtilisation.getAsDouble(),
+                100 * this.getBarrierIdleFraction(), this.getAllocationRate() / (1 << 20));
+    }
+
+    private long getElapsedNanos() {
+        return Math.max(System.nanoTime() - this.startNanos, 1);
+    }
+
+    private static long getCpuNanos() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return -1;
+    }
+
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        final com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        // Threads that end between the two calls are reported as -1
+        return Arrays.stream(sunThreads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            .filter(bytes -> bytes > 0)
+            .sum();
+    }
+
+}